@@ -22,27 +22,36 @@
 
 package dev.sciwhiz12.concord;
 
+import com.google.common.base.Splitter;
 import com.google.common.collect.Sets;
+import dev.sciwhiz12.concord.hub.HubServer;
 import dev.sciwhiz12.concord.msg.*;
 import dev.sciwhiz12.concord.msg.chat.ChatForwarder;
 import dev.sciwhiz12.concord.msg.chat.DefaultChatForwarder;
 import dev.sciwhiz12.concord.msg.chat.WebhookChatForwarder;
 import dev.sciwhiz12.concord.util.Messages;
 import net.dv8tion.jda.api.JDA;
-import net.dv8tion.jda.api.OnlineStatus;
 import net.dv8tion.jda.api.Permission;
-import net.dv8tion.jda.api.entities.Activity;
 import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.entities.Webhook;
 import net.dv8tion.jda.api.entities.WebhookClient;
 import net.dv8tion.jda.api.entities.channel.ChannelType;
+import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
 import net.dv8tion.jda.api.entities.channel.middleman.GuildChannel;
+import net.dv8tion.jda.api.events.channel.ChannelCreateEvent;
+import net.dv8tion.jda.api.events.channel.ChannelDeleteEvent;
+import net.dv8tion.jda.api.events.channel.update.GenericChannelUpdateEvent;
+import net.dv8tion.jda.api.events.guild.GuildAvailableEvent;
+import net.dv8tion.jda.api.events.guild.GuildReadyEvent;
+import net.dv8tion.jda.api.events.guild.GuildUnavailableEvent;
 import net.dv8tion.jda.api.events.session.ReadyEvent;
+import net.dv8tion.jda.api.events.session.SessionRecreateEvent;
+import net.dv8tion.jda.api.events.session.SessionResumeEvent;
 import net.dv8tion.jda.api.exceptions.ErrorHandler;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import net.dv8tion.jda.api.requests.ErrorResponse;
 import net.dv8tion.jda.api.utils.messages.MessageRequest;
-import net.minecraft.network.chat.Component;
 import net.minecraft.server.MinecraftServer;
 import net.neoforged.neoforge.common.NeoForge;
 import org.jetbrains.annotations.ApiStatus;
@@ -50,11 +59,19 @@ import org.slf4j.Marker;
 import org.slf4j.MarkerFactory;
 
 import javax.annotation.Nullable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
+import java.util.stream.Collectors;
 
-public class ChatBot extends ListenerAdapter {
+public class ChatBot extends ListenerAdapter implements DiscordRelay {
     private static final Marker BOT = MarkerFactory.getMarker("BOT");
     public static final EnumSet<Permission> REQUIRED_PERMISSIONS =
             EnumSet.of(Permission.VIEW_CHANNEL, Permission.MESSAGE_SEND);
@@ -66,17 +83,41 @@ public class ChatBot extends ListenerAdapter {
     private final PlayerListener playerListener;
     private final StatusListener statusListener;
     private final SentMessageMemory sentMessageMemory;
+    private final RecentMessageCache recentMessages;
+    private final MemberComponentCache memberComponents;
+    private final OutboundScheduler outboundScheduler;
+    private final PresenceManager presence;
+    @Nullable
+    private final HubServer hub;
+    private final ChatMemberCachePolicy chatMembers;
+    private final ConcordEventManager eventManager;
+    // The time when the bot was created, to report the time taken to become ready
+    private final long startTime = System.nanoTime();
     private ChatForwarder chatForwarder;
+    private volatile ConfigSnapshot config;
 
-    ChatBot(JDA discord, MinecraftServer server) {
+    ChatBot(JDA discord, MinecraftServer server, OutboundScheduler outboundScheduler, ChatMemberCachePolicy chatMembers,
+            ConcordEventManager eventManager) {
         this.discord = discord;
+        this.chatMembers = chatMembers;
+        this.eventManager = eventManager;
         this.server = server;
-        discord.addEventListener(this);
+        this.outboundScheduler = outboundScheduler;
+        this.config = ConfigSnapshot.create(discord);
+        eventManager.setChatChannel(config.chatChannelId());
+        this.recentMessages = new RecentMessageCache();
+        this.memberComponents = new MemberComponentCache();
+        this.presence = new PresenceManager(discord);
+        discord.addEventListener(this, memberComponents);
         msgListener = new MessageListener(this);
         messaging = new Messaging(this);
+        outboundScheduler.getCircuitBreaker().setOnClosed(messaging::replaySpool);
+        // The first replayed message is sent as the probe, when nothing else is queued once the backoff elapses
+        outboundScheduler.getCircuitBreaker().setOnProbeNeeded(messaging::replaySpool);
         playerListener = new PlayerListener(this);
         statusListener = new StatusListener(this);
         sentMessageMemory = new SentMessageMemory(this);
+        hub = ConcordConfig.HUB_MODE.get() == ConcordConfig.HubMode.HUB ? openHub() : null;
         chatForwarder = new DefaultChatForwarder(this);
 
         // Prevent any mentions not explicitly specified
@@ -91,6 +132,22 @@ public class ChatBot extends ListenerAdapter {
         return server;
     }
 
+    /**
+     * {@return the current snapshot of the config} The snapshot is replaced when the config is reloaded or the
+     * configured channels change, so it should not be held onto.
+     */
+    public ConfigSnapshot getConfig() {
+        return config;
+    }
+
+    /**
+     * Replaces the snapshot of the config with a new snapshot of the current config.
+     */
+    public void refreshConfig() {
+        this.config = ConfigSnapshot.create(discord);
+        eventManager.setChatChannel(config.chatChannelId());
+    }
+
     @Override
     public void onReady(ReadyEvent event) {
         this.updateActivity(0);
@@ -116,42 +173,143 @@ public class ChatBot extends ListenerAdapter {
                 avatarUrl = null;
             }
 
-            final Matcher urlMatcher = Webhook.WEBHOOK_URL.matcher(webhookID);
-            if (urlMatcher.find()) {
-                chatForwarder = new WebhookChatForwarder(this, WebhookClient.createClient(discord, webhookID), avatarUrl);
+            final List<CompletableFuture<WebhookClient<Message>>> webhooks = new ArrayList<>();
+            for (String webhook : Splitter.on(',').trimResults().omitEmptyStrings().split(webhookID)) {
+                final Matcher urlMatcher = Webhook.WEBHOOK_URL.matcher(webhook);
+                if (urlMatcher.find()) {
+                    webhooks.add(CompletableFuture.completedFuture(WebhookClient.createClient(discord, webhook)));
+                } else {
+                    final ErrorHandler errorHandler = new ErrorHandler(err -> Concord.LOGGER.error(BOT, "Failed to enable webhook {} for an unknown reason!", webhook, err))
+                            .handle(ErrorResponse.UNKNOWN_WEBHOOK, err ->
+                                    Concord.LOGGER.error(BOT, "Failed to enable webhook {} as webhook does not exist!", webhook, err))
+                            .handle(ErrorResponse.MISSING_PERMISSIONS, err ->
+                                    Concord.LOGGER.error(BOT, "Failed to enable webhook {} as bot is missing permissions!", webhook, err));
+                    webhooks.add(discord.retrieveWebhookById(webhook).submit()
+                            .<WebhookClient<Message>>handle((retrieved, error) -> {
+                                if (error != null) {
+                                    errorHandler.accept(error);
+                                    return null;
+                                }
+                                return retrieved;
+                            }));
+                }
+            }
 
-                Concord.LOGGER.info(BOT, "Enabled webhook chat forwarder, using webhook with ID {}", urlMatcher.group("id"));
-            } else {
-                discord.retrieveWebhookById(webhookID).queue(webhook -> {
+            CompletableFuture.allOf(webhooks.toArray(CompletableFuture[]::new)).thenRun(() -> {
+                final List<WebhookClient<Message>> clients = webhooks.stream()
+                        .map(CompletableFuture::join)
+                        .filter(Objects::nonNull)
+                        .toList();
+                if (clients.isEmpty()) {
+                    Concord.LOGGER.error(BOT, "Failed to enable webhook chat forwarder as no webhooks could be enabled!");
+                    return;
+                }
 
-                    chatForwarder = new WebhookChatForwarder(this, webhook, avatarUrl);
+                chatForwarder = new WebhookChatForwarder(this, clients, avatarUrl);
 
-                    Concord.LOGGER.info(BOT, "Enabled webhook chat forwarder, using webhook with ID {}", webhookID);
-                }, error -> new ErrorHandler(err -> Concord.LOGGER.error(BOT, "Failed to enable webhook chat forwarder for an unknown reason!", err))
-                        .handle(ErrorResponse.UNKNOWN_WEBHOOK, err ->
-                                Concord.LOGGER.error(BOT, "Failed to enable webhook chat forwarder as webhook does not exist!", err))
-                        .handle(ErrorResponse.MISSING_PERMISSIONS, err ->
-                                Concord.LOGGER.error(BOT, "Failed to enable webhook chat forwarder as bot is missing permissions!", err)));
-            }
+                Concord.LOGGER.info(BOT, "Enabled webhook chat forwarder, using {} webhook(s) with ID(s) {}", clients.size(),
+                        clients.stream().map(WebhookClient::getId).collect(Collectors.joining(", ")));
+            });
         }
 
         Concord.LOGGER.info(BOT, "Discord bot is ready!");
+        final Runtime runtime = Runtime.getRuntime();
+        Concord.LOGGER.info(BOT, "Became ready in {} ms with cache profile {}, caching {} member(s) of the guild; heap usage is now {} MiB",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime), ConcordConfig.CACHE_PROFILE.get(),
+                discord.getGuildById(config.guildId()) instanceof Guild guild ? guild.getMemberCache().size() : 0,
+                (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024));
+        // Virtual threads are not counted, so this shows the effect of the virtual_threads option
+        Concord.LOGGER.debug(BOT, "{} live platform thread(s), using virtual threads: {}",
+                ManagementFactory.getThreadMXBean().getThreadCount(), ConcordConfig.VIRTUAL_THREADS.get());
         messaging.allowProcessingMessages(true);
 
         if (ConcordConfig.BOT_START.get()) {
-            messaging.sendToDiscord(Messages.BOT_START.component());
+            messaging.sendToDiscord(Messages.BOT_START.component(), MessageCategory.LIFECYCLE);
+        }
+    }
+
+    @Nullable
+    private HubServer openHub() {
+        final String address = ConcordConfig.HUB_ADDRESS.get();
+        try {
+            final HubServer hub = HubServer.open(this, address);
+            Concord.LOGGER.info(BOT, "Sharing Discord integration with spokes connecting to {}", address);
+            return hub;
+        } catch (IOException | IllegalArgumentException e) {
+            Concord.LOGGER.error(BOT, "Failed to open hub at {}; Discord integration will not be shared", address, e);
+            return null;
         }
     }
 
     void shutdown() {
         Concord.LOGGER.info(BOT, "Shutting down Discord bot...");
-        messaging.allowProcessingMessages(false);
+        if (hub != null) {
+            hub.close();
+        }
         // Process all pending messages now
-        messaging.processMessages(true);
+        messaging.shutdown();
         NeoForge.EVENT_BUS.unregister(msgListener);
         NeoForge.EVENT_BUS.unregister(playerListener);
         NeoForge.EVENT_BUS.unregister(statusListener);
+        outboundScheduler.shutdown();
         discord.shutdown();
+        try {
+            // Wait for the remaining messages to be sent, so they are acknowledged in the spool
+            discord.awaitShutdown(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Let the listeners handle the events received before shutting down
+        eventManager.shutdown();
+        messaging.closeSpool();
+        sentMessageMemory.close();
+    }
+
+    @Override
+    public void onGuildReady(GuildReadyEvent event) {
+        refreshConfig();
+    }
+
+    @Override
+    public void onGuildAvailable(GuildAvailableEvent event) {
+        refreshConfig();
+    }
+
+    @Override
+    public void onGuildUnavailable(GuildUnavailableEvent event) {
+        refreshConfig();
+    }
+
+    @Override
+    public void onChannelCreate(ChannelCreateEvent event) {
+        refreshConfigIfConfigured(event.getChannel().getIdLong());
+    }
+
+    @Override
+    public void onChannelDelete(ChannelDeleteEvent event) {
+        refreshConfigIfConfigured(event.getChannel().getIdLong());
+    }
+
+    @Override
+    public void onGenericChannelUpdate(GenericChannelUpdateEvent<?> event) {
+        refreshConfigIfConfigured(event.getChannel().getIdLong());
+    }
+
+    private void refreshConfigIfConfigured(long channelId) {
+        final ConfigSnapshot current = config;
+        if (current.isConfiguredChannel(channelId)) {
+            refreshConfig();
+        }
+    }
+
+    @Override
+    public void onSessionRecreate(SessionRecreateEvent event) {
+        messaging.replaySpool();
+    }
+
+    @Override
+    public void onSessionResume(SessionResumeEvent event) {
+        messaging.replaySpool();
     }
 
     boolean checkSatisfaction() {
@@ -189,16 +347,38 @@ public class ChatBot extends ListenerAdapter {
             return false;
         }
 
+        // Messages for other categories fall back to the chat channel, so their channels are only warned about
+        refreshConfig();
+        final ConfigSnapshot current = config;
+        for (MessageCategory category : MessageCategory.values()) {
+            final long channelId = current.channelId(category);
+            if (channelId == current.chatChannelId()) continue;
+
+            final @Nullable TextChannel routed = guild.getTextChannelById(channelId);
+            if (routed == null) {
+                Concord.LOGGER.warn(BOT, "There is no text channel with ID {} within the guild for {} messages; they will be posted in the chat channel.",
+                        channelId, category.configName());
+            } else if (!guild.getSelfMember().hasPermission(routed, Permission.VIEW_CHANNEL, Permission.MESSAGE_SEND)) {
+                Concord.LOGGER.warn(BOT, "This bot is missing permissions to send messages in the channel with ID {} for {} messages.",
+                        channelId, category.configName());
+            }
+        }
+
         // Required permissions are there. All checks satisfied.
         return true;
     }
 
+    @Override
+    public void relayToDiscord(String message, MessageCategory category) {
+        messaging.sendToDiscord(message, category);
+    }
+
+    @Override
     @ApiStatus.Internal
     public void updateActivity(int offset) {
-        final int playerCount = server.getPlayerList().getPlayers().size() + offset;
-        final Component message = Messages.BOT_STATUS_ONLINE.eagerComponent(playerCount);
-        // TODO: make the activity type adjustable
-        discord.getPresence().setPresence(OnlineStatus.ONLINE, Activity.playing(message.getString()));
+        // The players on the spokes (if any) are counted along with the players on this server
+        presence.request(server.getPlayerList().getPlayers().size() + offset
+                + (hub != null ? hub.getRemotePlayerCount() : 0));
     }
 
     public Messaging messaging() {
@@ -209,6 +389,30 @@ public class ChatBot extends ListenerAdapter {
         return sentMessageMemory;
     }
 
+    /**
+     * {@return the hub which shares the Discord integration with other servers, or {@code null} if not a hub}
+     */
+    @Nullable
+    public HubServer getHub() {
+        return hub;
+    }
+
+    public ChatMemberCachePolicy getChatMembers() {
+        return chatMembers;
+    }
+
+    public RecentMessageCache getRecentMessages() {
+        return recentMessages;
+    }
+
+    public MemberComponentCache getMemberComponents() {
+        return memberComponents;
+    }
+
+    public OutboundScheduler getOutboundScheduler() {
+        return outboundScheduler;
+    }
+
     public ChatForwarder getChatForwarder() {
         return chatForwarder;
     }
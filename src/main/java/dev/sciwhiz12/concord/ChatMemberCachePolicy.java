@@ -0,0 +1,89 @@
+/*
+ * Concord - Copyright (c) 2020 SciWhiz12
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package dev.sciwhiz12.concord;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.utils.MemberCachePolicy;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Member cache policy which only caches the members who recently sent messages in the chat channel, used by the
+ * {@linkplain ConcordConfig.CacheProfile#LEAN lean cache profile}.
+ *
+ * <p>Members are marked as active by the message listener once their message is received, so a member is only cached
+ * from their next message onwards. Up to {@value #MAX_MEMBERS} members are kept; members which are evicted (by size or
+ * by inactivity) are unloaded from the JDA cache, if the policy is {@linkplain #bind(JDA) bound} to the JDA
+ * instance.</p>
+ */
+public final class ChatMemberCachePolicy implements MemberCachePolicy {
+    private static final int MAX_MEMBERS = 1_000;
+
+    // Member ID to guild ID
+    private final Cache<Long, Long> members = CacheBuilder.newBuilder()
+            .maximumSize(MAX_MEMBERS)
+            .expireAfterAccess(1, TimeUnit.DAYS)
+            .removalListener((RemovalListener<Long, Long>) notification -> {
+                if (notification.wasEvicted() && notification.getKey() != null && notification.getValue() != null) {
+                    unload(notification.getValue(), notification.getKey());
+                }
+            })
+            .build();
+    @Nullable
+    private volatile JDA discord;
+
+    /**
+     * Binds this policy to the JDA instance it is installed in, so members are unloaded from its cache once they are
+     * no longer active.
+     */
+    void bind(JDA discord) {
+        this.discord = discord;
+    }
+
+    /**
+     * Marks the member as active, so they are kept in the cache.
+     */
+    public void markActive(Member member) {
+        members.put(member.getIdLong(), member.getGuild().getIdLong());
+    }
+
+    @Override
+    public boolean cacheMember(Member member) {
+        return members.getIfPresent(member.getIdLong()) != null;
+    }
+
+    private void unload(long guildId, long memberId) {
+        final @Nullable JDA discord = this.discord;
+        if (discord == null) return;
+        final @Nullable Guild guild = discord.getGuildById(guildId);
+        if (guild != null && (guild.getOwnerIdLong() != memberId)) {
+            guild.unloadMember(memberId);
+        }
+    }
+}
@@ -27,6 +27,10 @@ import com.mojang.logging.LogUtils;
 import dev.sciwhiz12.concord.command.ConcordCommand;
 import dev.sciwhiz12.concord.command.ReportCommand;
 import dev.sciwhiz12.concord.features.ConcordFeatures;
+import dev.sciwhiz12.concord.hub.HubClient;
+import dev.sciwhiz12.concord.msg.DiscordRelay;
+import dev.sciwhiz12.concord.msg.MessageCategory;
+import dev.sciwhiz12.concord.msg.OutboundScheduler;
 import dev.sciwhiz12.concord.network.ConcordNetwork;
 import dev.sciwhiz12.concord.util.Messages;
 import net.dv8tion.jda.api.JDA;
@@ -43,13 +47,20 @@ import net.neoforged.bus.api.EventPriority;
 import net.neoforged.bus.api.IEventBus;
 import net.neoforged.fml.ModContainer;
 import net.neoforged.fml.common.Mod;
+import net.neoforged.fml.event.config.ModConfigEvent;
 import net.neoforged.neoforge.common.NeoForge;
 import net.neoforged.neoforge.event.server.ServerStartingEvent;
 import net.neoforged.neoforge.event.server.ServerStoppingEvent;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
 import org.slf4j.Logger;
 
 import javax.annotation.Nullable;
 import java.util.EnumSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 @Mod(Concord.MODID)
 public class Concord {
@@ -58,6 +69,9 @@ public class Concord {
 
     @Nullable
     public static ChatBot BOT;
+    // The link to the hub, if this server is a spoke
+    @Nullable
+    private static HubClient SPOKE;
 
     public Concord(ModContainer container, IEventBus modBus) {
         // TODO: Figure out what this was replaced with.
@@ -65,6 +79,7 @@ public class Concord {
 //                () -> new IExtensionPoint.DisplayTest(() -> NetworkConstants.IGNORESERVERONLY, (ver, remote) -> true));
         ConcordNetwork.register(modBus);
         ConcordConfig.register(container);
+        modBus.addListener(this::onConfigReloading);
 
         NeoForge.EVENT_BUS.addListener(EventPriority.LOWEST, this::onServerStarting);
         NeoForge.EVENT_BUS.addListener(EventPriority.LOWEST, this::onServerStopping);
@@ -73,6 +88,13 @@ public class Concord {
     }
 
 
+    public void onConfigReloading(ModConfigEvent.Reloading event) {
+        final @Nullable ChatBot bot = BOT;
+        if (bot != null && event.getConfig().getSpec() == ConcordConfig.CONFIG_SPEC) {
+            bot.refreshConfig();
+        }
+    }
+
     public void onServerStarting(ServerStartingEvent event) {
         if (!event.getServer().isDedicatedServer() && !ConcordConfig.ENABLE_INTEGRATED.get()) {
             LOGGER.info("Discord integration for integrated servers is disabled in server config.");
@@ -82,7 +104,7 @@ public class Concord {
     }
 
     public void onServerStopping(ServerStoppingEvent event) {
-        if (isEnabled()) {
+        if (isEnabled() || SPOKE != null) {
             disable(true);
         }
     }
@@ -103,22 +125,46 @@ public class Concord {
         return BOT != null;
     }
 
+    /**
+     * {@return the relay for messages to Discord, or {@code null} if disabled} This is the chat bot, or the link to the
+     * hub if this server is a spoke.
+     */
+    @Nullable
+    public static DiscordRelay getRelayOrNull() {
+        return BOT != null ? BOT : SPOKE;
+    }
+
     public static void disable() {
         disable(false);
     }
 
     public static void disable(boolean suppressMessage) {
+        if (SPOKE != null) {
+            LOGGER.info("Disconnecting from Discord integration hub...");
+            SPOKE.close();
+            SPOKE = null;
+        }
         if (BOT == null || !isEnabled()) return;
         LOGGER.info("Shutting down Discord integration...");
         if (!suppressMessage && ConcordConfig.BOT_STOP.get()) {
-            BOT.messaging().sendToDiscord(Messages.BOT_STOP.component());
+            BOT.messaging().sendToDiscord(Messages.BOT_STOP.component(), MessageCategory.LIFECYCLE);
         }
         BOT.shutdown();
         BOT = null;
     }
 
     public static void enable(MinecraftServer server) {
-        if (isEnabled()) return;
+        if (isEnabled() || SPOKE != null) return;
+        if (ConcordConfig.HUB_MODE.get() == ConcordConfig.HubMode.SPOKE) {
+            final String address = ConcordConfig.HUB_ADDRESS.get();
+            try {
+                SPOKE = HubClient.connect(server, address, ConcordConfig.HUB_SERVER_TAG.get());
+                LOGGER.info("Using Discord integration of the hub at {}.", address);
+            } catch (IllegalArgumentException e) {
+                LOGGER.error("Invalid hub address {}; Discord integration will not be enabled.", address, e);
+            }
+            return;
+        }
         final String token = ConcordConfig.TOKEN.get();
         if (Strings.isNullOrEmpty(token)) {
             LOGGER.warn("Bot token is not set in config; Discord integration will not be enabled.");
@@ -131,19 +177,65 @@ public class Concord {
             return;
         }
         LOGGER.info("Initializing Discord integration.");
+        final OutboundScheduler scheduler = new OutboundScheduler();
+        final ConcordConfig.CacheProfile cacheProfile = ConcordConfig.CACHE_PROFILE.get();
+        final ChatMemberCachePolicy chatMembers = new ChatMemberCachePolicy();
+        final boolean virtualThreads = ConcordConfig.VIRTUAL_THREADS.get();
+        final ConcordEventManager eventManager = new ConcordEventManager(virtualThreads);
         JDABuilder jdaBuilder = JDABuilder.createDefault(token)
-                .setChunkingFilter(ChunkingFilter.ALL)
-                .setMemberCachePolicy(MemberCachePolicy.ONLINE)
-                .enableIntents(GatewayIntent.MESSAGE_CONTENT, GatewayIntent.GUILD_PRESENCES, GatewayIntent.GUILD_MEMBERS)
-                .enableCache(EnumSet.of(CacheFlag.CLIENT_STATUS, CacheFlag.ACTIVITY))
+                .setHttpClientBuilder(newHttpClientBuilder()
+                        .addNetworkInterceptor(scheduler.createRateLimitInterceptor()))
+                .enableIntents(GatewayIntent.MESSAGE_CONTENT, GatewayIntent.GUILD_MEMBERS)
+                .setEventManager(eventManager)
                 .setAutoReconnect(true)
                 .setActivity(Activity.playing("the readying game..."))
                 .setStatus(OnlineStatus.DO_NOT_DISTURB);
+        switch (cacheProfile) {
+            case FULL -> jdaBuilder.setChunkingFilter(ChunkingFilter.ALL)
+                    .setMemberCachePolicy(MemberCachePolicy.ONLINE)
+                    .enableIntents(GatewayIntent.GUILD_PRESENCES)
+                    .enableCache(EnumSet.of(CacheFlag.ONLINE_STATUS, CacheFlag.CLIENT_STATUS, CacheFlag.ACTIVITY));
+            case BALANCED -> jdaBuilder.setChunkingFilter(ChunkingFilter.NONE)
+                    .setMemberCachePolicy(MemberCachePolicy.ONLINE.or(MemberCachePolicy.OWNER))
+                    .enableIntents(GatewayIntent.GUILD_PRESENCES)
+                    .enableCache(EnumSet.of(CacheFlag.ONLINE_STATUS, CacheFlag.ACTIVITY));
+            case LEAN -> jdaBuilder.setChunkingFilter(ChunkingFilter.NONE)
+                    .setMemberCachePolicy(MemberCachePolicy.OWNER.or(chatMembers));
+        }
+        if (virtualThreads) {
+            // JDA shuts these down along with itself. The event pool is left alone, as events must stay in order until
+            // they reach the event manager, which dispatches them on its own (virtual) thread
+            jdaBuilder.setCallbackPool(createVirtualExecutor("Concord Callback #"), true)
+                    .setRateLimitElastic(createVirtualExecutor("Concord RateLimit-Elastic #"), true);
+        }
         try {
             final JDA jda = jdaBuilder.build();
-            BOT = new ChatBot(jda, server);
+            if (cacheProfile == ConcordConfig.CacheProfile.LEAN) {
+                chatMembers.bind(jda);
+            }
+            BOT = new ChatBot(jda, server, scheduler, chatMembers, eventManager);
         } catch (InvalidTokenException e) {
             LOGGER.error("Error while trying to login to Discord; integration will not be enabled.", e);
+            scheduler.shutdown();
+            eventManager.shutdown();
         }
     }
+
+    /**
+     * {@return a new builder for the HTTP client of JDA, with the same settings as JDA's own default client}
+     *
+     * <p>A custom builder replaces the default client of JDA entirely, so its settings are copied here from JDA's
+     * internal {@code IOUtil.newHttpClientBuilder()} (as of JDA 5.0.1), rather than calling that internal method.</p>
+     */
+    private static OkHttpClient.Builder newHttpClientBuilder() {
+        final Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost(25);
+        return new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(5, 10, TimeUnit.SECONDS))
+                .dispatcher(dispatcher);
+    }
+
+    private static ExecutorService createVirtualExecutor(String namePrefix) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(namePrefix, 0).factory());
+    }
 }
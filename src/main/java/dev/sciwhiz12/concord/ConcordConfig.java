@@ -22,12 +22,20 @@
 
 package dev.sciwhiz12.concord;
 
+import dev.sciwhiz12.concord.msg.MessageCategory;
+import dev.sciwhiz12.concord.msg.MessageLane;
 import dev.sciwhiz12.concord.util.Messages;
+import net.dv8tion.jda.api.entities.Activity;
+import net.dv8tion.jda.api.entities.Message;
 import net.neoforged.fml.ModContainer;
 import net.neoforged.fml.config.ModConfig;
 import net.neoforged.neoforge.common.ModConfigSpec;
 
 import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Function;
 
 public class ConcordConfig {
     static final ModConfigSpec CONFIG_SPEC;
@@ -41,7 +49,16 @@ public class ConcordConfig {
     public static final ModConfigSpec.ConfigValue<String> GUILD_ID;
     public static final ModConfigSpec.ConfigValue<String> CHAT_CHANNEL_ID;
     public static final ModConfigSpec.ConfigValue<String> REPORT_CHANNEL_ID;
+    public static final Map<MessageCategory, ModConfigSpec.ConfigValue<String>> CHANNEL_ROUTES;
     public static final ModConfigSpec.ConfigValue<String> RELAY_WEBHOOK;
+    public static final ModConfigSpec.EnumValue<ActivityType> ACTIVITY_TYPE;
+    public static final ModConfigSpec.IntValue PRESENCE_UPDATE_INTERVAL;
+    public static final ModConfigSpec.EnumValue<CacheProfile> CACHE_PROFILE;
+    public static final ModConfigSpec.BooleanValue VIRTUAL_THREADS;
+
+    public static final ModConfigSpec.EnumValue<HubMode> HUB_MODE;
+    public static final ModConfigSpec.ConfigValue<String> HUB_ADDRESS;
+    public static final ModConfigSpec.ConfigValue<String> HUB_SERVER_TAG;
 
     public static final ModConfigSpec.BooleanValue USE_CUSTOM_FONT;
     public static final ModConfigSpec.BooleanValue LAZY_TRANSLATIONS;
@@ -52,6 +69,22 @@ public class ConcordConfig {
     public static final ModConfigSpec.BooleanValue HIDE_ROLES;
     public static final ModConfigSpec.BooleanValue VEILED_LINKS;
 
+    public static final ModConfigSpec.IntValue BATCH_WINDOW;
+    public static final ModConfigSpec.IntValue RENDER_THREADS;
+    public static final ModConfigSpec.IntValue DELIVERY_BUDGET;
+    public static final ModConfigSpec.BooleanValue SPOOL_ENABLED;
+    public static final ModConfigSpec.IntValue SPOOL_MAX_SIZE;
+    public static final ModConfigSpec.BooleanValue SENT_MESSAGES_PERSISTENT;
+    public static final ModConfigSpec.IntValue SENT_MESSAGES_MAX_SIZE;
+    public static final ModConfigSpec.IntValue WEBHOOK_MERGE_WINDOW;
+    public static final ModConfigSpec.IntValue WEBHOOK_MERGE_MAX_LENGTH;
+    public static final ModConfigSpec.IntValue WEBHOOK_MERGE_DEBOUNCE;
+    public static final ModConfigSpec.IntValue MAX_SEND_ATTEMPTS;
+    public static final ModConfigSpec.IntValue BREAKER_FAILURE_THRESHOLD;
+    public static final ModConfigSpec.IntValue BREAKER_BASE_BACKOFF;
+    public static final ModConfigSpec.IntValue BREAKER_MAX_BACKOFF;
+    public static final Map<MessageLane, LaneSettings> LANES;
+
     public static final ModConfigSpec.BooleanValue ALLOW_MENTIONS;
     public static final ModConfigSpec.BooleanValue ALLOW_PUBLIC_MENTIONS;
     public static final ModConfigSpec.BooleanValue ALLOW_USER_MENTIONS;
@@ -117,11 +150,73 @@ public class ConcordConfig {
                             "If empty, reports will be disabled.")
                     .define("report_channel_id", "");
 
+            final Map<MessageCategory, ModConfigSpec.ConfigValue<String>> routes = new EnumMap<>(MessageCategory.class);
+            routes.put(MessageCategory.CHAT, CHAT_CHANNEL_ID);
+            builder.comment("The channels where each category of messages is posted, each with its own queue and rate limit.").push("channels");
+            for (MessageCategory category : MessageCategory.values()) {
+                if (category == MessageCategory.CHAT) continue;
+                routes.put(category, builder.comment("The snowflake ID of the channel where " + category.configName() + " messages are posted.",
+                                "If empty, these messages are posted in the chat channel. Takes effect upon config reload.")
+                        .define(category.configName(), ""));
+            }
+            builder.pop();
+            CHANNEL_ROUTES = Collections.unmodifiableMap(routes);
+
             RELAY_WEBHOOK = builder.comment("The relay webhook, used for sending better-formatted chat-to-Discord messages.",
                             "This should either be a full webhook URL (with ID and token), or the ID of the webhook.",
+                            "Multiple webhooks may be given separated by commas, to spread chat across their rate limits;",
+                            "each player sticks to one webhook, and chat is sent as the bot user if all webhooks are rate limited.",
                             "If empty, messages will be sent normally as the bot user.")
                     .define("relay_webhook", "");
 
+            ACTIVITY_TYPE = builder.comment("The type of the bot's activity, which shows the amount of players online.",
+                            "Translation key: " + Messages.BOT_STATUS_ONLINE.key())
+                    .defineEnum("presence.activity_type", ActivityType.PLAYING);
+
+            PRESENCE_UPDATE_INTERVAL = builder.comment("The minimum time (in milliseconds) between updates of the bot's activity.",
+                            "Changes to the amount of players online within this time are combined into a single update,",
+                            "as Discord heavily limits how often the activity may be updated.")
+                    .defineInRange("presence.update_interval", 5_000, 0, 600_000);
+
+            CACHE_PROFILE = builder.comment("How much of the guild's members and their presences is loaded and kept in memory.",
+                            "FULL loads all members on startup and tracks the presence of all online members.",
+                            "BALANCED tracks the presence of online members, but does not load all members on startup.",
+                            "LEAN does not track presences, and only keeps members who recently sent messages in the chat channel;",
+                            "the online status of members is then not shown in-game. Recommended for very large guilds.",
+                            "Takes effect upon reload of the Discord integration.")
+                    .defineEnum("cache_profile", CacheProfile.FULL);
+
+            VIRTUAL_THREADS = builder.comment("Use virtual threads for the callbacks, events, and rate-limited requests of the bot,",
+                            "instead of dedicated pools of platform threads. Reduces the amount of threads started by the bot.",
+                            "Takes effect upon reload of the Discord integration.")
+                    .define("virtual_threads", false);
+
+            builder.pop();
+        }
+
+        {
+            builder.comment("Hub settings",
+                            "Multiple servers may share the Discord connection of one server (the hub), which the other servers",
+                            "(the spokes) connect to over a local socket. Spokes do not need any Discord connection settings.")
+                    .push("hub");
+
+            HUB_MODE = builder.comment("The role of this server in sharing a Discord connection.",
+                            "STANDALONE holds its own Discord connection, which is not shared with other servers.",
+                            "HUB holds the Discord connection, and accepts connections from spokes at the hub address.",
+                            "SPOKE connects to the hub at the hub address, instead of holding its own Discord connection.",
+                            "Takes effect upon reload of the Discord integration.")
+                    .defineEnum("mode", HubMode.STANDALONE);
+
+            HUB_ADDRESS = builder.comment("The address of the hub, as 'host:port' for a TCP socket or 'unix:<path>' for a Unix domain socket.",
+                            "The hub does not authenticate spokes, so the address should only be reachable from the local machine.",
+                            "Takes effect upon reload of the Discord integration.")
+                    .define("address", "127.0.0.1:25590");
+
+            HUB_SERVER_TAG = builder.comment("The tag of this server, shown before the messages of this server in Discord when this server is a spoke.",
+                            "Chat messages from this server are sent through the chat forwarding of the hub (such as its webhooks), with the tag before the player name.",
+                            "If empty, messages are not tagged. Takes effect upon reload of the Discord integration.")
+                    .define("server_tag", "");
+
             builder.pop();
         }
 
@@ -183,6 +278,98 @@ public class ConcordConfig {
             builder.pop();
         }
 
+        {
+            builder.comment("Relay settings",
+                            "Settings for how messages are relayed between the game and Discord.")
+                    .push("relay");
+
+            BATCH_WINDOW = builder.comment("The time window (in milliseconds) in which queued messages to Discord are batched together.",
+                            "Messages queued within the window are combined into as few Discord messages as possible, up to",
+                            "the Discord message length limit, which reduces the chance of hitting Discord's rate limits.",
+                            "If 0, batching is disabled and each message is sent as its own Discord message.")
+                    .defineInRange("batch_window", 0, 0, 10_000);
+
+            RENDER_THREADS = builder.comment("The amount of threads used for rendering messages from Discord for players in-game.",
+                            "Takes effect upon reload of the Discord integration.")
+                    .defineInRange("render_threads", 2, 1, 16);
+
+            DELIVERY_BUDGET = builder.comment("The maximum time (in milliseconds) spent each server tick on delivering rendered messages",
+                            "from Discord to players. Messages which do not fit in the budget are delivered in the next ticks.")
+                    .defineInRange("delivery_budget", 5, 1, 50);
+
+            SPOOL_ENABLED = builder.comment("Write messages to Discord to a spool on disk before sending them.",
+                            "Messages which fail to send (such as during a Discord outage) are sent again after reconnecting,",
+                            "and messages which were not sent before the server stopped are sent after the server starts again.",
+                            "Takes effect upon reload of the Discord integration.")
+                    .define("spool.enabled", true);
+
+            SPOOL_MAX_SIZE = builder.comment("The maximum size (in mebibytes) of the spool on disk.",
+                            "If the spool grows beyond this size, the oldest unsent messages are dropped.")
+                    .defineInRange("spool.max_size", 8, 2, 1024);
+
+            SENT_MESSAGES_PERSISTENT = builder.comment("Remember the chat messages sent to Discord in a file on disk, so replies on Discord to chat messages",
+                            "sent before a restart still show the player who sent them. If disabled, they are remembered in memory only.",
+                            "Takes effect upon reload of the Discord integration.")
+                    .define("sent_messages.persistent", true);
+
+            SENT_MESSAGES_MAX_SIZE = builder.comment("The size (in mebibytes) of the file on disk for remembering chat messages sent to Discord.",
+                            "Once the file is full, the oldest remembered messages are forgotten.",
+                            "Changing this forgets all remembered messages.")
+                    .defineInRange("sent_messages.max_size", 16, 1, 1024);
+
+            WEBHOOK_MERGE_WINDOW = builder.comment("The time window (in milliseconds) after a player's last chat message sent through the relay webhook",
+                            "in which their new chat lines are appended to that message by editing it, instead of being sent as new messages.",
+                            "This reduces the amount of messages created for players who send many short lines in a row.",
+                            "If 0, merging is disabled and each chat line is sent as its own message.")
+                    .defineInRange("webhook_merge.window", 0, 0, 60_000);
+
+            WEBHOOK_MERGE_MAX_LENGTH = builder.comment("The maximum length of a webhook message which chat lines are appended to.",
+                            "Once a message would grow beyond this length, the next line is sent as a new message.")
+                    .defineInRange("webhook_merge.max_length", 500, 1, Message.MAX_CONTENT_LENGTH);
+
+            WEBHOOK_MERGE_DEBOUNCE = builder.comment("The time (in milliseconds) to wait for more chat lines before editing a webhook message to append lines.",
+                            "Lines sent within this time of each other are appended in one edit, though an edit is never held back",
+                            "for longer than four times this time.")
+                    .defineInRange("webhook_merge.debounce", 500, 0, 5_000);
+
+            MAX_SEND_ATTEMPTS = builder.comment("The maximum amount of attempts to send a message to Discord, when sending it fails",
+                            "because of a Discord server error or a network error.")
+                    .defineInRange("max_send_attempts", 3, 1, 10);
+
+            BREAKER_FAILURE_THRESHOLD = builder.comment("The amount of consecutive failures to send messages to Discord before the circuit breaker opens.",
+                            "While the circuit breaker is open, no messages are sent to Discord until a probe message succeeds.",
+                            "(Messages sent in the meantime are kept in the spool if enabled, else they are dropped.)")
+                    .defineInRange("circuit_breaker.failure_threshold", 5, 1, 100);
+
+            BREAKER_BASE_BACKOFF = builder.comment("The base time (in milliseconds) to wait before retrying after a failure to send a message to Discord.",
+                            "The time doubles with each consecutive failure, with some randomness added.")
+                    .defineInRange("circuit_breaker.base_backoff", 1000, 100, 60_000);
+
+            BREAKER_MAX_BACKOFF = builder.comment("The maximum time (in milliseconds) to wait before retrying after a failure to send a message to Discord.")
+                    .defineInRange("circuit_breaker.max_backoff", 60_000, 1000, 3_600_000);
+
+            final Map<MessageLane, LaneSettings> lanes = new EnumMap<>(MessageLane.class);
+            for (MessageLane lane : MessageLane.values()) {
+                builder.comment("Settings for the " + lane.configName() + " message lane.").push(lane.configName());
+
+                final ModConfigSpec.IntValue capacity = builder.comment("The maximum amount of messages queued in this lane.")
+                        .defineInRange("capacity", lane.defaultCapacity(), 1, 100_000);
+                final ModConfigSpec.IntValue weight = builder.comment("The amount of messages taken from this lane in turn with the other lanes.",
+                                "Lanes with higher weights are processed more quickly relative to lanes with lower weights.")
+                        .defineInRange("weight", lane.defaultWeight(), 1, 100);
+                final ModConfigSpec.EnumValue<MessageLane.OverflowPolicy> overflow = builder.comment("What happens when a message is added while this lane is full.",
+                                "DROP_OLDEST drops the oldest message in the lane, DROP_NEWEST drops the new message.",
+                                "MERGE merges the new message into the newest message in the lane if possible, else drops the new message.")
+                        .defineEnum("overflow", lane.defaultOverflowPolicy());
+                lanes.put(lane, new LaneSettings(capacity, weight, overflow));
+
+                builder.pop();
+            }
+            LANES = Collections.unmodifiableMap(lanes);
+
+            builder.pop();
+        }
+
         {
             builder.comment("Mention settings",
                             "Settings for when messages from Concord that contain mentions should cause pings.",
@@ -261,6 +448,17 @@ public class ConcordConfig {
         CONFIG_SPEC = builder.build();
     }
 
+    /**
+     * The settings of a single {@linkplain MessageLane message lane}.
+     *
+     * @param capacity the maximum amount of messages queued in the lane
+     * @param weight   the amount of messages taken from the lane in turn with the other lanes
+     * @param overflow the policy for when a message is added while the lane is full
+     */
+    public record LaneSettings(ModConfigSpec.IntValue capacity, ModConfigSpec.IntValue weight,
+                               ModConfigSpec.EnumValue<MessageLane.OverflowPolicy> overflow) {
+    }
+
     /**
      * The visibility of the Server Owner's crown in messages to clients.
      */
@@ -281,6 +479,86 @@ public class ConcordConfig {
         NEVER
     }
 
+    /**
+     * The role of a server in sharing a Discord connection with other servers.
+     *
+     * @see dev.sciwhiz12.concord.hub.HubServer
+     * @see dev.sciwhiz12.concord.hub.HubClient
+     */
+    public enum HubMode {
+        /**
+         * The server holds its own Discord connection.
+         */
+        STANDALONE,
+        /**
+         * The server holds the Discord connection, and shares it with the spokes connected to it.
+         */
+        HUB,
+        /**
+         * The server connects to a hub, and uses the Discord connection of the hub.
+         */
+        SPOKE
+    }
+
+    /**
+     * The profile for how much of the guild's members and their presences is cached by JDA.
+     */
+    public enum CacheProfile {
+        /**
+         * All members are chunked on startup, and the presences (online status, activities, and client statuses) of
+         * all online members are tracked.
+         */
+        FULL,
+        /**
+         * Members are not chunked on startup, but online members are cached as their presences are received, and their
+         * online status and activities are tracked.
+         */
+        BALANCED,
+        /**
+         * Members are not chunked and presences are not received at all. Only the guild owner and the members who
+         * recently sent messages in the chat channel are cached.
+         *
+         * @see ChatMemberCachePolicy
+         */
+        LEAN
+    }
+
+    /**
+     * The type of the bot's activity on Discord.
+     */
+    public enum ActivityType {
+        /**
+         * Shown as "Playing ...".
+         */
+        PLAYING(Activity::playing),
+        /**
+         * Shown as "Listening to ...".
+         */
+        LISTENING(Activity::listening),
+        /**
+         * Shown as "Watching ...".
+         */
+        WATCHING(Activity::watching),
+        /**
+         * Shown as "Competing in ...".
+         */
+        COMPETING(Activity::competing),
+        /**
+         * Shown as a custom status, with only the text.
+         */
+        CUSTOM(Activity::customStatus);
+
+        private final Function<String, Activity> factory;
+
+        ActivityType(Function<String, Activity> factory) {
+            this.factory = factory;
+        }
+
+        public Activity createActivity(String text) {
+            return factory.apply(text);
+        }
+    }
+
     /**
      * A comment-friendly version of {@link ModConfigSpec.Builder} which adds a space before the comment text, for
      * easier readability.
@@ -0,0 +1,229 @@
+/*
+ * Concord - Copyright (c) 2020 SciWhiz12
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package dev.sciwhiz12.concord;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.dv8tion.jda.api.events.GenericEvent;
+import net.dv8tion.jda.api.events.message.GenericMessageEvent;
+import net.dv8tion.jda.api.hooks.EventListener;
+import net.dv8tion.jda.api.hooks.IEventManager;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+import javax.annotation.Nullable;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static dev.sciwhiz12.concord.Concord.LOGGER;
+
+/**
+ * Event manager which drops irrelevant Discord events before any listener sees them, and dispatches the remaining
+ * events to the listeners in order on a dedicated thread, off JDA's gateway thread.
+ *
+ * <p>Events are routed by their type: for each event class, the manager computes once which listeners handle it. For
+ * {@link ListenerAdapter}s, those are the listeners which override a handler method for the event class or any of its
+ * supertypes; other listeners receive all events. Events which no listener handles are dropped. Message events from
+ * channels other than the chat channel are also dropped.</p>
+ *
+ * <p>The amount of events seen, dropped and dispatched, and the time taken to dispatch them, is counted for each event
+ * type, and logged when the manager is shut down.</p>
+ */
+final class ConcordEventManager implements IEventManager {
+    private static final Marker EVENTS = MarkerFactory.getMarker("EVENTS");
+    private static final EventListener[] NO_LISTENERS = new EventListener[0];
+
+    private final ExecutorService executor;
+    private final List<EventListener> listeners = new CopyOnWriteArrayList<>();
+    // Event class to the listeners which handle it, in registration order; cleared when the listeners change
+    private final Map<Class<?>, EventListener[]> routes = new ConcurrentHashMap<>();
+    // Listener class to the event types it has handler methods for
+    private final Map<Class<?>, Set<Class<?>>> handledTypes = new ConcurrentHashMap<>();
+    private final Map<Class<?>, Counters> counters = new ConcurrentHashMap<>();
+    // The ID of the chat channel, or 0 to not filter message events by channel
+    private volatile long chatChannelId = 0;
+    @Nullable
+    private volatile Thread dispatcherThread;
+
+    /**
+     * Creates an event manager.
+     *
+     * @param virtualThread whether to dispatch events on a virtual thread instead of a platform thread
+     */
+    ConcordEventManager(boolean virtualThread) {
+        final ThreadFactory threadFactory = virtualThread
+                ? Thread.ofVirtual().name("Concord Event Dispatcher").factory()
+                : new ThreadFactoryBuilder().setNameFormat("Concord Event Dispatcher").setDaemon(true).build();
+        this.executor = Executors.newSingleThreadExecutor(runnable -> dispatcherThread = threadFactory.newThread(runnable));
+    }
+
+    /**
+     * Sets the chat channel, outside which message events are dropped.
+     *
+     * @param chatChannelId the ID of the chat channel, or {@code 0} to not filter message events by channel
+     */
+    void setChatChannel(long chatChannelId) {
+        this.chatChannelId = chatChannelId;
+    }
+
+    @Override
+    public void register(Object listener) {
+        if (!(listener instanceof EventListener eventListener)) {
+            throw new IllegalArgumentException("Listener must implement EventListener");
+        }
+        listeners.add(eventListener);
+        routes.clear();
+    }
+
+    @Override
+    public void unregister(Object listener) {
+        if (listeners.remove(listener)) {
+            routes.clear();
+        }
+    }
+
+    @Override
+    public List<Object> getRegisteredListeners() {
+        return List.copyOf(listeners);
+    }
+
+    @Override
+    public void handle(GenericEvent event) {
+        final Counters counter = counters.computeIfAbsent(event.getClass(), k -> new Counters());
+        counter.seen.increment();
+
+        final EventListener[] route = routes.computeIfAbsent(event.getClass(), this::computeRoute);
+        final long chatChannelId = this.chatChannelId;
+        if (route.length == 0 || (chatChannelId != 0 && event instanceof GenericMessageEvent messageEvent
+                && messageEvent.getChannel().getIdLong() != chatChannelId)) {
+            counter.dropped.increment();
+            return;
+        }
+
+        final long queuedAt = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                counter.delayNanos.add(System.nanoTime() - queuedAt);
+                dispatch(route, event);
+            });
+            counter.dispatched.increment();
+        } catch (RejectedExecutionException e) {
+            // Shut down, so dispatch directly on the calling thread
+            dispatch(route, event);
+            counter.dispatched.increment();
+        }
+    }
+
+    private void dispatch(EventListener[] route, GenericEvent event) {
+        for (EventListener listener : route) {
+            try {
+                listener.onEvent(event);
+            } catch (Throwable throwable) {
+                LOGGER.error(EVENTS, "Listener {} threw an exception while handling {}",
+                        listener.getClass().getName(), event.getClass().getSimpleName(), throwable);
+                if (throwable instanceof Error error) {
+                    throw error;
+                }
+            }
+        }
+    }
+
+    private EventListener[] computeRoute(Class<?> eventClass) {
+        final List<EventListener> route = new ArrayList<>();
+        for (EventListener listener : listeners) {
+            if (!(listener instanceof ListenerAdapter)) {
+                route.add(listener);
+                continue;
+            }
+            for (Class<?> handledType : handledTypes.computeIfAbsent(listener.getClass(), ConcordEventManager::findHandledTypes)) {
+                if (handledType.isAssignableFrom(eventClass)) {
+                    route.add(listener);
+                    break;
+                }
+            }
+        }
+        return route.isEmpty() ? NO_LISTENERS : route.toArray(EventListener[]::new);
+    }
+
+    // Finds the event types of the handler methods overridden by a ListenerAdapter subclass
+    private static Set<Class<?>> findHandledTypes(Class<?> listenerClass) {
+        final Set<Class<?>> types = ConcurrentHashMap.newKeySet();
+        for (Class<?> clazz = listenerClass; clazz != ListenerAdapter.class && clazz != null; clazz = clazz.getSuperclass()) {
+            for (Method method : clazz.getDeclaredMethods()) {
+                if (method.getParameterCount() != 1 || Modifier.isStatic(method.getModifiers())) continue;
+                final Class<?> type = method.getParameterTypes()[0];
+                if (method.getName().startsWith("on") && GenericEvent.class.isAssignableFrom(type)) {
+                    types.add(type);
+                }
+            }
+        }
+        return types;
+    }
+
+    void shutdown() {
+        executor.shutdown();
+        // A listener may shut down the bot, in which case the dispatcher cannot wait for itself
+        if (Thread.currentThread() != dispatcherThread) {
+            try {
+                if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                    LOGGER.warn(EVENTS, "Event dispatcher did not terminate in time; some events may not be handled");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (LOGGER.isDebugEnabled(EVENTS)) {
+            counters.entrySet().stream()
+                    .sorted(Comparator.comparingLong(entry -> -entry.getValue().seen.sum()))
+                    .forEach(entry -> {
+                        final Counters counter = entry.getValue();
+                        final long dispatched = counter.dispatched.sum();
+                        LOGGER.debug(EVENTS, "{}: {} seen, {} dropped, {} dispatched after {} us on average",
+                                entry.getKey().getSimpleName(), counter.seen.sum(), counter.dropped.sum(), dispatched,
+                                dispatched != 0 ? TimeUnit.NANOSECONDS.toMicros(counter.delayNanos.sum() / dispatched) : 0);
+                    });
+        }
+    }
+
+    private static final class Counters {
+        final LongAdder seen = new LongAdder();
+        final LongAdder dropped = new LongAdder();
+        final LongAdder dispatched = new LongAdder();
+        // Total time between receiving and dispatching events
+        final LongAdder delayNanos = new LongAdder();
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Concord - Copyright (c) 2020 SciWhiz12
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package dev.sciwhiz12.concord;
+
+import dev.sciwhiz12.concord.msg.MessageCategory;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
+import net.dv8tion.jda.api.utils.MiscUtil;
+
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable snapshot of the parts of {@link ConcordConfig} which are used for every message, with the snowflake IDs
+ * already parsed and the configured channels already resolved.
+ *
+ * <p>The snapshot is held by the {@link ChatBot}, which replaces it whenever the config is reloaded or the channels
+ * change in Discord. Code which handles messages should use the snapshot instead of querying the config.</p>
+ *
+ * @param guildId            the ID of the guild, or {@code 0} if not set or invalid
+ * @param chatChannelId      the ID of the chat channel, or {@code 0} if not set or invalid
+ * @param reportChannelId    the ID of the report channel, or {@code 0} if not set or invalid
+ * @param allowedMentions    the types of mentions allowed to ping in messages from Concord
+ * @param chatChannel        the chat channel, or {@code null} if not currently in the JDA cache
+ * @param reportChannel      the report channel, or {@code null} if not set or not currently in the JDA cache
+ * @param categoryChannelIds the IDs of the channels for each category of messages, falling back to the chat channel
+ * @param categoryChannels   the channels for each category of messages which are currently in the JDA cache
+ */
+public record ConfigSnapshot(long guildId, long chatChannelId, long reportChannelId,
+                             Set<Message.MentionType> allowedMentions,
+                             @Nullable TextChannel chatChannel, @Nullable TextChannel reportChannel,
+                             Map<MessageCategory, Long> categoryChannelIds,
+                             Map<MessageCategory, TextChannel> categoryChannels) {
+    /**
+     * Creates a snapshot of the current config, resolving the channels from the JDA cache.
+     *
+     * @param discord the JDA instance
+     * @return the snapshot
+     */
+    public static ConfigSnapshot create(JDA discord) {
+        final long chatChannelId = parseSnowflake(ConcordConfig.CHAT_CHANNEL_ID.get());
+        final long reportChannelId = parseSnowflake(ConcordConfig.REPORT_CHANNEL_ID.get());
+        final @Nullable TextChannel chatChannel = chatChannelId != 0 ? discord.getTextChannelById(chatChannelId) : null;
+
+        final Map<MessageCategory, Long> categoryChannelIds = new EnumMap<>(MessageCategory.class);
+        final Map<MessageCategory, TextChannel> categoryChannels = new EnumMap<>(MessageCategory.class);
+        for (MessageCategory category : MessageCategory.values()) {
+            final long channelId = parseSnowflake(ConcordConfig.CHANNEL_ROUTES.get(category).get());
+            categoryChannelIds.put(category, channelId != 0 ? channelId : chatChannelId);
+            final @Nullable TextChannel channel = channelId != 0 && channelId != chatChannelId
+                    ? discord.getTextChannelById(channelId) : chatChannel;
+            if (channel != null) {
+                categoryChannels.put(category, channel);
+            }
+        }
+
+        return new ConfigSnapshot(parseSnowflake(ConcordConfig.GUILD_ID.get()), chatChannelId, reportChannelId,
+                createAllowedMentions(), chatChannel,
+                reportChannelId != 0 ? discord.getTextChannelById(reportChannelId) : null,
+                Collections.unmodifiableMap(categoryChannelIds), Collections.unmodifiableMap(categoryChannels));
+    }
+
+    /**
+     * {@return the ID of the channel where messages of the given category are posted} This is the chat channel if no
+     * other channel is configured for the category.
+     *
+     * @param category the message category
+     */
+    public long channelId(MessageCategory category) {
+        return categoryChannelIds.get(category);
+    }
+
+    /**
+     * {@return the channel where messages of the given category are posted, or {@code null} if not currently in the
+     * JDA cache}
+     *
+     * @param category the message category
+     */
+    @Nullable
+    public TextChannel channel(MessageCategory category) {
+        return categoryChannels.get(category);
+    }
+
+    /**
+     * {@return whether the given channel is one of the configured channels}
+     *
+     * @param channelId the ID of the channel
+     */
+    public boolean isConfiguredChannel(long channelId) {
+        return channelId == chatChannelId || channelId == reportChannelId || categoryChannelIds.containsValue(channelId);
+    }
+
+    private static long parseSnowflake(String id) {
+        if (id.isBlank()) return 0;
+        try {
+            return MiscUtil.parseSnowflake(id);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static Set<Message.MentionType> createAllowedMentions() {
+        if (ConcordConfig.ALLOW_MENTIONS.get()) {
+            final Set<Message.MentionType> mentions = EnumSet.noneOf(Message.MentionType.class);
+            if (ConcordConfig.ALLOW_PUBLIC_MENTIONS.get()) {
+                mentions.add(Message.MentionType.EVERYONE);
+                mentions.add(Message.MentionType.HERE);
+            }
+            if (ConcordConfig.ALLOW_USER_MENTIONS.get()) {
+                mentions.add(Message.MentionType.USER);
+            }
+            if (ConcordConfig.ALLOW_ROLE_MENTIONS.get()) {
+                mentions.add(Message.MentionType.ROLE);
+            }
+            return Collections.unmodifiableSet(mentions);
+        }
+        return Set.of();
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Concord - Copyright (c) 2020 SciWhiz12
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package dev.sciwhiz12.concord;
+
+import dev.sciwhiz12.concord.util.Messages;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.OnlineStatus;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Manager of the bot's presence (its online status and activity) on Discord.
+ *
+ * <p>Discord heavily limits presence updates, so the manager only tracks the latest requested player count, and
+ * coalesces requests made within the {@linkplain ConcordConfig#PRESENCE_UPDATE_INTERVAL update interval} of the last
+ * presence update into a single update. An update is only sent if the rendered activity actually changed.</p>
+ */
+final class PresenceManager {
+    private final JDA discord;
+    // All fields below are guarded by this
+    private int desiredPlayerCount;
+    private boolean updateScheduled = false;
+    private long lastUpdateTime = System.nanoTime() - TimeUnit.DAYS.toNanos(1);
+    @Nullable
+    private String lastActivityText;
+    @Nullable
+    private ConcordConfig.ActivityType lastActivityType;
+
+    PresenceManager(JDA discord) {
+        this.discord = discord;
+    }
+
+    /**
+     * Requests the presence to be updated for the given player count.
+     *
+     * @param playerCount the amount of players online
+     */
+    synchronized void request(int playerCount) {
+        desiredPlayerCount = playerCount;
+        if (updateScheduled) return; // The scheduled update will pick up the new player count
+
+        final long interval = TimeUnit.MILLISECONDS.toNanos(ConcordConfig.PRESENCE_UPDATE_INTERVAL.get());
+        final long delay = Math.max(0, lastUpdateTime + interval - System.nanoTime());
+        updateScheduled = true;
+        try {
+            discord.getGatewayPool().schedule(this::update, delay, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // The bot is shutting down
+            updateScheduled = false;
+        }
+    }
+
+    private synchronized void update() {
+        updateScheduled = false;
+        final String text = Messages.BOT_STATUS_ONLINE.eagerComponent(desiredPlayerCount).getString();
+        final ConcordConfig.ActivityType type = ConcordConfig.ACTIVITY_TYPE.get();
+        if (text.equals(lastActivityText) && type == lastActivityType) return;
+
+        lastActivityText = text;
+        lastActivityType = type;
+        lastUpdateTime = System.nanoTime();
+        discord.getPresence().setPresence(OnlineStatus.ONLINE, type.createActivity(text));
+    }
+}
@@ -24,7 +24,10 @@ package dev.sciwhiz12.concord.command;
 
 import com.mojang.brigadier.Command;
 import com.mojang.brigadier.context.CommandContext;
+import dev.sciwhiz12.concord.ChatBot;
 import dev.sciwhiz12.concord.Concord;
+import dev.sciwhiz12.concord.msg.CircuitBreaker;
+import dev.sciwhiz12.concord.msg.SentMessageMemory;
 import dev.sciwhiz12.concord.util.Translations;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.commands.Commands;
@@ -33,6 +36,7 @@ import net.neoforged.neoforge.event.RegisterCommandsEvent;
 
 import static net.minecraft.ChatFormatting.GREEN;
 import static net.minecraft.ChatFormatting.RED;
+import static net.minecraft.ChatFormatting.YELLOW;
 import static net.minecraft.commands.Commands.literal;
 
 public class ConcordCommand {
@@ -61,9 +65,8 @@ public class ConcordCommand {
     private static int reload(CommandContext<CommandSourceStack> ctx) {
         CommandSourceStack source = ctx.getSource();
         ctx.getSource().sendSuccess(() -> Translations.COMMAND_ENABLING.resolvedComponent(source), true);
-        if (Concord.isEnabled()) {
-            Concord.disable();
-        }
+        // Also disconnects from the hub, if this server is a spoke
+        Concord.disable();
         Concord.enable(source.getServer());
         return Command.SINGLE_SUCCESS;
     }
@@ -99,6 +102,22 @@ public class ConcordCommand {
             result = Translations.COMMAND_STATUS_DISABLED.resolvedComponent(source).withStyle(RED);
         }
         ctx.getSource().sendSuccess(() -> Translations.COMMAND_STATUS_PREFIX.resolvedComponent(source, result), false);
+
+        final ChatBot bot = Concord.getBotOrNull();
+        if (bot != null) {
+            final CircuitBreaker circuitBreaker = bot.getOutboundScheduler().getCircuitBreaker();
+            final Component circuit = switch (circuitBreaker.getState()) {
+                case CLOSED -> Translations.COMMAND_STATUS_CIRCUIT_CLOSED.resolvedComponent(source).withStyle(GREEN);
+                case OPEN -> Translations.COMMAND_STATUS_CIRCUIT_OPEN.resolvedComponent(source,
+                        (circuitBreaker.getRetryDelayMillis() + 999) / 1000).withStyle(RED);
+                case HALF_OPEN -> Translations.COMMAND_STATUS_CIRCUIT_HALF_OPEN.resolvedComponent(source).withStyle(YELLOW);
+            };
+            ctx.getSource().sendSuccess(() -> Translations.COMMAND_STATUS_CIRCUIT_PREFIX.resolvedComponent(source, circuit), false);
+
+            final SentMessageMemory memory = bot.getSentMessageMemory();
+            ctx.getSource().sendSuccess(() -> Translations.COMMAND_STATUS_MEMORY.resolvedComponent(source,
+                    memory.size(), (memory.estimateFootprint() + 1023) / 1024), false);
+        }
         return Command.SINGLE_SUCCESS;
     }
 }
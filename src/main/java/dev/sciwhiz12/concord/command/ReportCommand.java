@@ -29,8 +29,10 @@ import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import dev.sciwhiz12.concord.ChatBot;
 import dev.sciwhiz12.concord.Concord;
 import dev.sciwhiz12.concord.ConcordConfig;
+import dev.sciwhiz12.concord.msg.OutboundScheduler;
 import dev.sciwhiz12.concord.util.Translations;
 import net.dv8tion.jda.api.EmbedBuilder;
+import net.dv8tion.jda.api.entities.MessageEmbed;
 import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.commands.arguments.EntityArgument;
@@ -78,8 +80,7 @@ public class ReportCommand {
         }
 
         final ChatBot bot = Concord.getBot();
-        final String channelID = ConcordConfig.REPORT_CHANNEL_ID.get();
-        final TextChannel channel = channelID.isBlank() ? null : bot.getDiscord().getTextChannelById(channelID);
+        final TextChannel channel = bot.getConfig().reportChannel();
 
         // If reporting is disabled, also tell the user
         if (channel == null) {
@@ -96,23 +97,24 @@ public class ReportCommand {
 
         var reportedName = reportedPlayer.getName().getString();
         var senderName = sender.getName().getString();
-        channel.sendMessageEmbeds(
-                new EmbedBuilder()
-                        .setColor(0xF5E65C)
-                        .setDescription("**%s** has been reported by **%s**".formatted(reportedName, senderName))
-                        .addField("Reported",
-                                "%s (`%s`)".formatted(escape(reportedName), reportedPlayer.getGameProfile().getId().toString()) + '\n' +
-                                        "- _Dimension_ `%s` @ _XYZ_ `%s`".formatted(reportedPlayer.level().dimension().location(), position(reportedPlayer)),
-                                false)
-                        .addField("Reason", reason, false)
-                        .addField("Reporter",
-                                "%s (`%s`)".formatted(escape(senderName), sender.getGameProfile().getId().toString()) + '\n' +
-                                        "- _Dimension_ `%s` @ _XYZ_ `%s`".formatted(sender.level().dimension().location(), position(sender)),
-                                false)
-                        .setTimestamp(Instant.now())
-                        .setFooter("Game time: " + sender.level().getGameTime())
-                        .build()
-        ).queue();
+        final MessageEmbed embed = new EmbedBuilder()
+                .setColor(0xF5E65C)
+                .setDescription("**%s** has been reported by **%s**".formatted(reportedName, senderName))
+                .addField("Reported",
+                        "%s (`%s`)".formatted(escape(reportedName), reportedPlayer.getGameProfile().getId().toString()) + '\n' +
+                                "- _Dimension_ `%s` @ _XYZ_ `%s`".formatted(reportedPlayer.level().dimension().location(), position(reportedPlayer)),
+                        false)
+                .addField("Reason", reason, false)
+                .addField("Reporter",
+                        "%s (`%s`)".formatted(escape(senderName), sender.getGameProfile().getId().toString()) + '\n' +
+                                "- _Dimension_ `%s` @ _XYZ_ `%s`".formatted(sender.level().dimension().location(), position(sender)),
+                        false)
+                .setTimestamp(Instant.now())
+                .setFooter("Game time: " + sender.level().getGameTime())
+                .build();
+        // Reports have their own queue and bucket in the scheduler, so they are not delayed by the chat channel
+        bot.getOutboundScheduler().submit(OutboundScheduler.channelRoute(channel.getIdLong()),
+                () -> channel.sendMessageEmbeds(embed));
 
         ctx.getSource().sendSuccess(
                 () -> Translations.COMMAND_REPORT_SUCCESS.resolvedComponent(ctx.getSource(),
@@ -0,0 +1,242 @@
+/*
+ * Concord - Copyright (c) 2020 SciWhiz12
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package dev.sciwhiz12.concord.hub;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mojang.authlib.GameProfile;
+import dev.sciwhiz12.concord.msg.DiscordRelay;
+import dev.sciwhiz12.concord.msg.MessageCategory;
+import dev.sciwhiz12.concord.msg.PlayerListener;
+import dev.sciwhiz12.concord.msg.StatusListener;
+import io.netty.buffer.Unpooled;
+import net.minecraft.SharedConstants;
+import net.minecraft.network.RegistryFriendlyByteBuf;
+import net.minecraft.network.chat.Component;
+import net.minecraft.network.chat.ComponentSerialization;
+import net.minecraft.server.MinecraftServer;
+import net.neoforged.bus.api.EventPriority;
+import net.neoforged.bus.api.SubscribeEvent;
+import net.neoforged.neoforge.common.NeoForge;
+import net.neoforged.neoforge.event.ServerChatEvent;
+
+import javax.annotation.Nullable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static dev.sciwhiz12.concord.Concord.LOGGER;
+import static dev.sciwhiz12.concord.hub.HubProtocol.HUB;
+
+/**
+ * The spoke side of a shared Discord connection. The spoke connects to a hub instead of holding its own Discord
+ * connection, relaying its messages to Discord through the hub and broadcasting the messages from Discord which the
+ * hub fans out.
+ *
+ * <p>If the connection to the hub is lost, the spoke reconnects with an increasing delay. Messages relayed while not
+ * connected are kept in a bounded backlog (dropping the oldest messages), and sent once connected again.</p>
+ *
+ * @see HubServer
+ * @see HubProtocol
+ */
+public final class HubClient implements DiscordRelay {
+    private static final int BACKLOG_CAPACITY = 500;
+    private static final long INITIAL_RECONNECT_DELAY = TimeUnit.SECONDS.toMillis(1);
+    private static final long MAX_RECONNECT_DELAY = TimeUnit.SECONDS.toMillis(30);
+
+    private final MinecraftServer server;
+    private final SocketAddress address;
+    private final String tag;
+    private final PlayerListener playerListener;
+    private final StatusListener statusListener;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("Concord Hub Client").setDaemon(true).build());
+    // Guarded by this
+    private final Deque<byte[]> backlog = new ArrayDeque<>();
+    @Nullable
+    private HubConnection connection;
+    // Only accessed by the executor thread
+    private long reconnectDelay = INITIAL_RECONNECT_DELAY;
+    private volatile boolean closed = false;
+
+    private HubClient(MinecraftServer server, SocketAddress address, String tag) {
+        this.server = server;
+        this.address = address;
+        this.tag = tag;
+        this.playerListener = new PlayerListener(this);
+        this.statusListener = new StatusListener(this);
+        NeoForge.EVENT_BUS.register(this);
+    }
+
+    /**
+     * Creates a spoke, which starts connecting to the hub at the given address in the background.
+     *
+     * @param server  the Minecraft server
+     * @param address the address of the hub, as described in {@link HubProtocol#parseAddress(String)}
+     * @param tag     the tag of this server, shown before its messages in Discord
+     * @return the spoke
+     * @throws IllegalArgumentException if the address is malformed
+     */
+    public static HubClient connect(MinecraftServer server, String address, String tag) {
+        final HubClient client = new HubClient(server, HubProtocol.parseAddress(address), tag);
+        client.executor.execute(client::tryConnect);
+        return client;
+    }
+
+    @Override
+    public void relayToDiscord(String message, MessageCategory category) {
+        send(HubProtocol.frame(HubProtocol.TO_DISCORD, out -> {
+            out.writeByte(category.ordinal());
+            // Longer messages would be rejected by the hub
+            HubProtocol.writeString(out, HubProtocol.truncate(message, HubProtocol.MAX_MESSAGE_LENGTH));
+        }));
+    }
+
+    @Override
+    public void updateActivity(int offset) {
+        final int count = server.getPlayerList().getPlayers().size() + offset;
+        send(HubProtocol.frame(HubProtocol.PLAYER_COUNT, out -> out.writeInt(count)));
+    }
+
+    @SubscribeEvent(priority = EventPriority.LOWEST)
+    void onSubmittedServerChat(ServerChatEvent event) {
+        final GameProfile player = event.getPlayer().getGameProfile();
+        final String displayName = event.getPlayer().getDisplayName().getString();
+        final String message = event.getMessage().getString();
+        // Sent through the chat forwarder of the hub, so chat from spokes is also sent through webhooks if enabled
+        send(HubProtocol.frame(HubProtocol.CHAT, out -> {
+            out.writeLong(player.getId().getMostSignificantBits());
+            out.writeLong(player.getId().getLeastSignificantBits());
+            HubProtocol.writeString(out, HubProtocol.truncate(player.getName(), HubProtocol.MAX_NAME_LENGTH));
+            HubProtocol.writeString(out, HubProtocol.truncate(displayName, HubProtocol.MAX_NAME_LENGTH));
+            HubProtocol.writeString(out, HubProtocol.truncate(message, SharedConstants.MAX_CHAT_LENGTH));
+        }));
+    }
+
+    private synchronized void send(byte[] frame) {
+        if (connection != null) {
+            connection.send(frame);
+            return;
+        }
+        if (backlog.size() >= BACKLOG_CAPACITY) {
+            backlog.poll();
+        }
+        backlog.add(frame);
+    }
+
+    // Called on the executor thread
+    private void tryConnect() {
+        if (closed) return;
+        final HubConnection newConnection;
+        try {
+            newConnection = new HubConnection(SocketChannel.open(address), "Concord Hub Link", this::handle,
+                    this::onDisconnect);
+        } catch (IOException e) {
+            LOGGER.warn(HUB, "Failed to connect to hub at {}, retrying in {} ms: {}", address, reconnectDelay, e.toString());
+            scheduleReconnect();
+            return;
+        }
+        synchronized (this) {
+            connection = newConnection;
+            newConnection.send(HubProtocol.frame(HubProtocol.HELLO, out -> {
+                out.writeInt(HubProtocol.VERSION);
+                HubProtocol.writeString(out, tag);
+            }));
+            // The messages relayed while not connected are sent in order, before any new messages
+            backlog.forEach(newConnection::send);
+            backlog.clear();
+        }
+        // Started only once it is the current connection, so losing it right away is noticed
+        newConnection.start();
+        updateActivity(0);
+        reconnectDelay = INITIAL_RECONNECT_DELAY;
+        LOGGER.info(HUB, "Connected to hub at {}", address);
+    }
+
+    // Called on the executor thread
+    private void scheduleReconnect() {
+        if (closed) return;
+        executor.schedule(this::tryConnect, reconnectDelay, TimeUnit.MILLISECONDS);
+        reconnectDelay = Math.min(reconnectDelay * 2, MAX_RECONNECT_DELAY);
+    }
+
+    private void onDisconnect(HubConnection closedConnection) {
+        synchronized (this) {
+            if (connection != closedConnection) return;
+            connection = null;
+        }
+        if (closed) return;
+        LOGGER.warn(HUB, "Lost connection to hub at {}; reconnecting", address);
+        try {
+            executor.execute(this::scheduleReconnect);
+        } catch (RejectedExecutionException e) {
+            // Closed concurrently
+        }
+    }
+
+    // Called on the reader thread of the connection
+    private void handle(HubConnection connection, byte type, DataInputStream payload) throws IOException {
+        if (type != HubProtocol.TO_MINECRAFT) {
+            throw new IOException("Unknown frame type " + type);
+        }
+
+        final RegistryFriendlyByteBuf buf = new RegistryFriendlyByteBuf(Unpooled.wrappedBuffer(payload.readAllBytes()),
+                server.registryAccess());
+        final Component message;
+        try {
+            message = ComponentSerialization.STREAM_CODEC.decode(buf);
+        } catch (Exception e) {
+            throw new IOException("Failed to decode message from hub", e);
+        } finally {
+            buf.release();
+        }
+        // Also logs the message to the console
+        server.execute(() -> server.getPlayerList().broadcastSystemMessage(message, false));
+    }
+
+    /**
+     * Disconnects from the hub, once the messages relayed before are sent.
+     */
+    public void close() {
+        closed = true;
+        NeoForge.EVENT_BUS.unregister(this);
+        NeoForge.EVENT_BUS.unregister(playerListener);
+        NeoForge.EVENT_BUS.unregister(statusListener);
+        executor.shutdownNow();
+
+        final @Nullable HubConnection current;
+        synchronized (this) {
+            current = connection;
+        }
+        if (current != null) {
+            current.close();
+            current.awaitClosed(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+}
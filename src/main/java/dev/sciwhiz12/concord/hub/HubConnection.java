@@ -0,0 +1,189 @@
+/*
+ * Concord - Copyright (c) 2020 SciWhiz12
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package dev.sciwhiz12.concord.hub;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static dev.sciwhiz12.concord.Concord.LOGGER;
+import static dev.sciwhiz12.concord.hub.HubProtocol.HUB;
+
+/**
+ * A connection between a hub and a spoke, over a socket channel in blocking mode.
+ *
+ * <p>Each connection has a reader thread, which reads frames and passes them to the frame handler, and a writer thread,
+ * which writes the frames queued by {@link #send(byte[])}. Sending never blocks the calling thread; if the peer does not
+ * keep up and the queue is full, frames are dropped.</p>
+ */
+final class HubConnection {
+    private static final int QUEUE_CAPACITY = 1000;
+    // Queued to stop the writer thread, after the frames queued before it are written
+    private static final byte[] END = new byte[0];
+
+    private final SocketChannel channel;
+    private final String name;
+    private final FrameHandler handler;
+    private final Consumer<HubConnection> onClose;
+    private final BlockingQueue<byte[]> outbound = new ArrayBlockingQueue<>(QUEUE_CAPACITY + 1);
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final Thread reader;
+    private final Thread writer;
+
+    HubConnection(SocketChannel channel, String name, FrameHandler handler, Consumer<HubConnection> onClose) {
+        this.channel = channel;
+        this.name = name;
+        this.handler = handler;
+        this.onClose = onClose;
+        this.reader = Thread.ofPlatform().name(name + " Reader").daemon().unstarted(this::readLoop);
+        this.writer = Thread.ofPlatform().name(name + " Writer").daemon().unstarted(this::writeLoop);
+    }
+
+    void start() {
+        reader.start();
+        writer.start();
+    }
+
+    String name() {
+        return name;
+    }
+
+    /**
+     * Queues a frame to be sent, unless the connection is closed.
+     *
+     * @param frame the encoded frame, from {@link HubProtocol#frame(byte, HubProtocol.PayloadWriter)}
+     */
+    void send(byte[] frame) {
+        if (closed.get()) return;
+        // One slot is kept free for the end marker
+        if (outbound.remainingCapacity() <= 1 || !outbound.offer(frame)) {
+            LOGGER.warn(HUB, "Outbound queue of {} is full; dropping message", name);
+        }
+    }
+
+    /**
+     * Closes the connection, once the frames queued before are written.
+     */
+    void close() {
+        if (closed.compareAndSet(false, true)) {
+            if (!outbound.offer(END)) {
+                // Filled up by concurrent senders, so the queued frames are given up
+                outbound.clear();
+                outbound.offer(END);
+            }
+            onClose.accept(this);
+        }
+    }
+
+    /**
+     * Waits for the queued frames to be written after {@linkplain #close() closing} the connection.
+     *
+     * @param timeoutMillis the maximum time to wait, in milliseconds
+     */
+    void awaitClosed(long timeoutMillis) {
+        try {
+            writer.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void readLoop() {
+        final ByteBuffer header = ByteBuffer.allocate(4);
+        try {
+            while (true) {
+                header.clear();
+                if (!readFully(header)) break;
+                final int length = header.getInt(0);
+                if (length < 1 || length > HubProtocol.MAX_FRAME_LENGTH) {
+                    LOGGER.warn(HUB, "Received frame with invalid length {} from {}; disconnecting", length, name);
+                    break;
+                }
+                final ByteBuffer frame = ByteBuffer.allocate(length);
+                if (!readFully(frame)) break;
+
+                final byte[] bytes = frame.array();
+                handler.handle(this, bytes[0], new DataInputStream(new ByteArrayInputStream(bytes, 1, length - 1)));
+            }
+        } catch (IOException e) {
+            if (!closed.get()) {
+                LOGGER.warn(HUB, "Error while reading from {}; disconnecting", name, e);
+            }
+        } finally {
+            close();
+        }
+    }
+
+    // Returns false if the end of the stream is reached
+    private boolean readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) return false;
+        }
+        return true;
+    }
+
+    private void writeLoop() {
+        try {
+            byte[] frame;
+            while ((frame = outbound.take()) != END) {
+                final ByteBuffer buffer = ByteBuffer.wrap(frame);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        } catch (IOException e) {
+            if (!closed.get()) {
+                LOGGER.warn(HUB, "Error while writing to {}; disconnecting", name, e);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
+            try {
+                // Also stops the reader thread, if it is still reading
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.debug(HUB, "Error while closing {}", name, e);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface FrameHandler {
+        /**
+         * Handles a frame received from the peer. This is called on the reader thread of the connection.
+         *
+         * @param connection the connection
+         * @param type       the type of the frame
+         * @param payload    the payload of the frame
+         * @throws IOException if the payload is malformed, which closes the connection
+         */
+        void handle(HubConnection connection, byte type, DataInputStream payload) throws IOException;
+    }
+}
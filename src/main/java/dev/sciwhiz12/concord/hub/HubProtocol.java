@@ -0,0 +1,161 @@
+/*
+ * Concord - Copyright (c) 2020 SciWhiz12
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package dev.sciwhiz12.concord.hub;
+
+import net.dv8tion.jda.api.entities.Message;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The binary protocol between a hub and its spokes.
+ *
+ * <p>Each frame is laid out as follows, with all numbers in big-endian order:</p>
+ * <pre>
+ * int  length (of the rest of the frame)
+ * byte type
+ * the payload, depending on the type:
+ *   {@value #HELLO}: int protocol version, string server tag (spoke to hub, as the first frame)
+ *   {@value #TO_DISCORD}: byte message category ordinal, string message (spoke to hub)
+ *   {@value #PLAYER_COUNT}: int amount of players on the spoke (spoke to hub)
+ *   {@value #TO_MINECRAFT}: the message component, encoded with its stream codec (hub to spoke)
+ *   {@value #CHAT}: long player UUID most significant bits, long player UUID least significant bits, string player
+ *       name, string player display name, string chat message (spoke to hub)
+ * </pre>
+ *
+ * <p>Strings are written as an int length followed by the UTF-8 encoded bytes. The strings relayed to Discord are
+ * limited to {@value #MAX_MESSAGE_LENGTH} characters, the most which a Discord message can hold.</p>
+ */
+final class HubProtocol {
+    static final Marker HUB = MarkerFactory.getMarker("HUB");
+    static final int VERSION = 2;
+    static final int MAX_FRAME_LENGTH = 1024 * 1024;
+    static final int MAX_MESSAGE_LENGTH = Message.MAX_CONTENT_LENGTH;
+    static final int MAX_NAME_LENGTH = 256;
+
+    static final byte HELLO = 1;
+    static final byte TO_DISCORD = 2;
+    static final byte PLAYER_COUNT = 3;
+    static final byte TO_MINECRAFT = 4;
+    static final byte CHAT = 5;
+
+    private HubProtocol() {
+    }
+
+    /**
+     * Parses the address of the hub, which is either {@code host:port} for a TCP socket or {@code unix:<path>} for a
+     * Unix domain socket.
+     *
+     * @param address the address
+     * @return the socket address
+     * @throws IllegalArgumentException if the address is malformed
+     */
+    static SocketAddress parseAddress(String address) {
+        if (address.startsWith("unix:")) {
+            return UnixDomainSocketAddress.of(address.substring("unix:".length()));
+        }
+        final int colon = address.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Hub address must be 'host:port' or 'unix:<path>', but was '" + address + "'");
+        }
+        // Parsing the port may throw NumberFormatException, which is an IllegalArgumentException
+        return new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+    }
+
+    /**
+     * Encodes a frame, including its length.
+     *
+     * @param type    the type of the frame
+     * @param payload the writer of the payload of the frame
+     * @return the encoded frame
+     */
+    static byte[] frame(byte type, PayloadWriter payload) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0); // Replaced below, once the length is known
+            out.writeByte(type);
+            payload.write(out);
+        } catch (IOException e) {
+            // Never thrown by the in-memory stream
+            throw new UncheckedIOException(e);
+        }
+        final byte[] frame = bytes.toByteArray();
+        ByteBuffer.wrap(frame).putInt(0, frame.length - 4);
+        return frame;
+    }
+
+    static void writeString(DataOutputStream out, String string) throws IOException {
+        final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string of at most the given amount of characters.
+     *
+     * @param in        the input
+     * @param maxLength the maximum length of the string, in UTF-16 characters
+     * @return the string
+     * @throws IOException if the string is longer than the maximum length, or if reading fails
+     */
+    static String readString(DataInputStream in, int maxLength) throws IOException {
+        final int length = in.readInt();
+        // Each UTF-16 character is encoded as at most three bytes in UTF-8
+        if (length < 0 || length > maxLength * 3) {
+            throw new IOException("Invalid string length " + length);
+        }
+        final String string = new String(in.readNBytes(length), StandardCharsets.UTF_8);
+        if (string.length() > maxLength) {
+            throw new IOException("String of length " + string.length() + " exceeds maximum of " + maxLength);
+        }
+        return string;
+    }
+
+    /**
+     * Truncates a string to at most the given amount of characters, without splitting a surrogate pair.
+     *
+     * @param string    the string
+     * @param maxLength the maximum length of the string, in UTF-16 characters
+     * @return the string, or its truncated prefix
+     */
+    static String truncate(String string, int maxLength) {
+        if (string.length() <= maxLength) return string;
+        final int end = Character.isHighSurrogate(string.charAt(maxLength - 1)) ? maxLength - 1 : maxLength;
+        return string.substring(0, end);
+    }
+
+    @FunctionalInterface
+    interface PayloadWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Concord - Copyright (c) 2020 SciWhiz12
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package dev.sciwhiz12.concord.hub;
+
+import com.mojang.authlib.GameProfile;
+import dev.sciwhiz12.concord.ChatBot;
+import dev.sciwhiz12.concord.msg.MessageCategory;
+import dev.sciwhiz12.concord.util.Messages;
+import io.netty.buffer.Unpooled;
+import net.minecraft.SharedConstants;
+import net.minecraft.network.RegistryFriendlyByteBuf;
+import net.minecraft.network.chat.Component;
+import net.minecraft.network.chat.ComponentSerialization;
+
+import javax.annotation.Nullable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static dev.sciwhiz12.concord.Concord.LOGGER;
+import static dev.sciwhiz12.concord.hub.HubProtocol.HUB;
+
+/**
+ * The hub side of a shared Discord connection. The hub holds the Discord connection, and accepts connections from the
+ * spokes (other servers), which then share the Discord connection of the hub instead of holding their own.
+ *
+ * <p>Messages from the spokes to Discord are sent through the {@linkplain dev.sciwhiz12.concord.msg.Messaging
+ * messaging} of the hub, tagged with the server tag of the spoke and truncated to fit in a Discord message. Chat
+ * messages from the spokes are sent through the {@linkplain ChatBot#getChatForwarder() chat forwarder} of the hub
+ * instead, with the server tag of the spoke before the display name of the player. Messages from Discord are rendered once by the hub,
+ * and the rendered message is fanned out to all spokes. The player counts of the spokes are added to the player count
+ * shown in the activity of the bot.</p>
+ *
+ * @see HubClient
+ * @see HubProtocol
+ */
+public final class HubServer {
+    private final ChatBot bot;
+    private final ServerSocketChannel serverChannel;
+    @Nullable
+    private final Path socketPath;
+    // All connected spokes, including those which have not identified themselves yet
+    private final Set<Spoke> spokes = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    private HubServer(ChatBot bot, ServerSocketChannel serverChannel, @Nullable Path socketPath) {
+        this.bot = bot;
+        this.serverChannel = serverChannel;
+        this.socketPath = socketPath;
+    }
+
+    /**
+     * Opens the hub at the given address, and starts accepting spokes.
+     *
+     * @param bot     the chat bot
+     * @param address the address of the hub, as described in {@link HubProtocol#parseAddress(String)}
+     * @return the hub
+     * @throws IOException              if the hub could not be bound to the address
+     * @throws IllegalArgumentException if the address is malformed
+     */
+    public static HubServer open(ChatBot bot, String address) throws IOException {
+        final SocketAddress socketAddress = HubProtocol.parseAddress(address);
+        final ServerSocketChannel channel;
+        @Nullable Path socketPath = null;
+        if (socketAddress instanceof UnixDomainSocketAddress unixAddress) {
+            socketPath = unixAddress.getPath();
+            // A socket file left behind by a server which was not stopped cleanly prevents binding
+            Files.deleteIfExists(socketPath);
+            channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            channel = ServerSocketChannel.open();
+        }
+        try {
+            channel.bind(socketAddress);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        final HubServer hub = new HubServer(bot, channel, socketPath);
+        Thread.ofPlatform().name("Concord Hub Acceptor").daemon().start(hub::acceptLoop);
+        return hub;
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            final SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (IOException e) {
+                if (!closed) {
+                    LOGGER.error(HUB, "Error while accepting spokes; no more spokes will be accepted", e);
+                }
+                return;
+            }
+            final Spoke spoke = new Spoke();
+            spoke.connection = new HubConnection(channel, "Concord Hub Spoke #" + nextId.incrementAndGet(), spoke, spoke::onClose);
+            spokes.add(spoke);
+            spoke.connection.start();
+        }
+    }
+
+    /**
+     * {@return whether any spokes are connected}
+     */
+    public boolean hasSpokes() {
+        for (Spoke spoke : spokes) {
+            if (spoke.tag != null) return true;
+        }
+        return false;
+    }
+
+    /**
+     * {@return the total amount of players on the connected spokes}
+     */
+    public int getRemotePlayerCount() {
+        int count = 0;
+        for (Spoke spoke : spokes) {
+            count += spoke.playerCount;
+        }
+        return count;
+    }
+
+    /**
+     * Sends a message from Discord to all connected spokes.
+     *
+     * @param message the rendered message, which should be eagerly translated as the hub does not know the clients of
+     *                the spokes
+     */
+    public void broadcast(Component message) {
+        final RegistryFriendlyByteBuf buf = new RegistryFriendlyByteBuf(Unpooled.buffer(),
+                bot.getServer().registryAccess());
+        final byte[] encoded;
+        try {
+            ComponentSerialization.STREAM_CODEC.encode(buf, message);
+            encoded = new byte[buf.readableBytes()];
+            buf.readBytes(encoded);
+        } finally {
+            buf.release();
+        }
+
+        final byte[] frame = HubProtocol.frame(HubProtocol.TO_MINECRAFT, out -> out.write(encoded));
+        for (Spoke spoke : spokes) {
+            if (spoke.tag != null) {
+                spoke.connection.send(frame);
+            }
+        }
+    }
+
+    public void close() {
+        closed = true;
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            LOGGER.warn(HUB, "Error while closing hub", e);
+        }
+        for (Spoke spoke : spokes) {
+            spoke.connection.close();
+        }
+        if (socketPath != null) {
+            try {
+                Files.deleteIfExists(socketPath);
+            } catch (IOException e) {
+                LOGGER.debug(HUB, "Failed to delete hub socket file {}", socketPath, e);
+            }
+        }
+    }
+
+    private final class Spoke implements HubConnection.FrameHandler {
+        private HubConnection connection;
+        // Set once the spoke identifies itself
+        @Nullable
+        private volatile String tag;
+        private volatile int playerCount = 0;
+
+        @Override
+        public void handle(HubConnection connection, byte type, DataInputStream payload) throws IOException {
+            final @Nullable String tag = this.tag;
+            if (tag == null && type != HubProtocol.HELLO) {
+                throw new IOException("Expected hello from spoke, but received frame of type " + type);
+            }
+
+            switch (type) {
+                case HubProtocol.HELLO -> {
+                    final int version = payload.readInt();
+                    final String spokeTag = HubProtocol.readString(payload, HubProtocol.MAX_NAME_LENGTH);
+                    if (version != HubProtocol.VERSION) {
+                        LOGGER.warn(HUB, "{} uses protocol version {}, but the hub uses version {}; disconnecting",
+                                connection.name(), version, HubProtocol.VERSION);
+                        connection.close();
+                        return;
+                    }
+                    this.tag = spokeTag;
+                    LOGGER.info(HUB, "{} connected with server tag '{}'", connection.name(), spokeTag);
+                }
+                case HubProtocol.TO_DISCORD -> {
+                    final int ordinal = payload.readUnsignedByte();
+                    if (ordinal >= MessageCategory.values().length) {
+                        throw new IOException("Unknown message category " + ordinal);
+                    }
+                    final String message = HubProtocol.readString(payload, HubProtocol.MAX_MESSAGE_LENGTH);
+                    final String tagged = tag.isEmpty() ? message : Messages.HUB_TAGGED.component(tag, message).getString();
+                    bot.messaging().sendToDiscord(HubProtocol.truncate(tagged, HubProtocol.MAX_MESSAGE_LENGTH),
+                            MessageCategory.values()[ordinal]);
+                }
+                case HubProtocol.CHAT -> {
+                    final UUID uuid = new UUID(payload.readLong(), payload.readLong());
+                    final String name = HubProtocol.readString(payload, HubProtocol.MAX_NAME_LENGTH);
+                    final String displayName = HubProtocol.readString(payload, HubProtocol.MAX_NAME_LENGTH);
+                    final String message = HubProtocol.readString(payload, SharedConstants.MAX_CHAT_LENGTH);
+                    final Component taggedName = tag.isEmpty() ? Component.literal(displayName)
+                            : Component.literal("[" + tag + "] " + displayName);
+                    // Forwarded on the server thread, as with chat messages from the hub itself
+                    bot.getServer().execute(() -> bot.getChatForwarder().forward(new GameProfile(uuid, name),
+                            taggedName, Component.literal(message)));
+                }
+                case HubProtocol.PLAYER_COUNT -> {
+                    playerCount = Math.max(0, payload.readInt());
+                    bot.updateActivity(0);
+                }
+                default -> throw new IOException("Unknown frame type " + type);
+            }
+        }
+
+        private void onClose(HubConnection connection) {
+            spokes.remove(this);
+            if (tag != null) {
+                LOGGER.info(HUB, "{} with server tag '{}' disconnected", connection.name(), tag);
+                bot.updateActivity(0);
+            }
+        }
+    }
+}
@@ -26,6 +26,8 @@ import com.mojang.brigadier.context.CommandContext;
 import com.mojang.logging.LogUtils;
 import dev.sciwhiz12.concord.Concord;
 import dev.sciwhiz12.concord.ConcordConfig;
+import dev.sciwhiz12.concord.msg.DiscordRelay;
+import dev.sciwhiz12.concord.msg.MessageCategory;
 import dev.sciwhiz12.concord.util.Messages;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.network.chat.PlayerChatMessage;
@@ -37,6 +39,8 @@ import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
+import javax.annotation.Nullable;
+
 @Mixin(SayCommand.class)
 public abstract class SayCommandMixin {
     @Unique
@@ -48,9 +52,10 @@ public abstract class SayCommandMixin {
         if (!ConcordConfig.EMOTE_COMMAND_HOOK.get()) return;
 
         try {
-            if (Concord.isEnabled() && ConcordConfig.COMMAND_SAY.get()) {
-                Concord.getBot().messaging().sendToDiscord(
-                        Messages.SAY_COMMAND.component(ctx.getSource().getDisplayName(), message.decoratedContent()));
+            final @Nullable DiscordRelay relay = Concord.getRelayOrNull();
+            if (relay != null && ConcordConfig.COMMAND_SAY.get()) {
+                relay.relayToDiscord(Messages.SAY_COMMAND.component(ctx.getSource().getDisplayName(), message.decoratedContent())
+                        .getString(), MessageCategory.CHAT);
             }
         } catch (Exception e) {
             concord$LOGGER.warn("Exception from command hook; ignoring to continue command execution", e);
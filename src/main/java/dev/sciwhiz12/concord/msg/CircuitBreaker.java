@@ -0,0 +1,249 @@
+/*
+ * Concord - Copyright (c) 2020 SciWhiz12
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package dev.sciwhiz12.concord.msg;
+
+import dev.sciwhiz12.concord.ConcordConfig;
+import net.dv8tion.jda.api.exceptions.ErrorResponseException;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static dev.sciwhiz12.concord.Concord.LOGGER;
+
+/**
+ * Circuit breaker for the outbound REST requests to Discord.
+ *
+ * <ul>
+ *     <li>While {@linkplain State#CLOSED closed}, requests are sent as normal. Each transient failure (a server error or
+ *     a network error) delays the next request by a jittered exponential backoff, and once enough consecutive
+ *     transient failures occur, the breaker opens.</li>
+ *     <li>While {@linkplain State#OPEN open}, no requests are sent until the backoff elapses, and producers of new
+ *     messages short-circuit instead of queueing them.</li>
+ *     <li>Once the backoff elapses, producers may queue messages again, and the first request sent is the probe, which
+ *     makes the breaker {@linkplain State#HALF_OPEN half-open} until it completes. If the probe succeeds, the breaker
+ *     closes; else it opens again with a longer backoff. If no request is queued when the backoff elapses, the
+ *     breaker asks for one to be sent as the probe, through the {@linkplain #setOnProbeNeeded(Runnable) callback}.</li>
+ * </ul>
+ */
+public final class CircuitBreaker {
+    private static final Marker BREAKER = MarkerFactory.getMarker("BREAKER");
+    private static final OpenException OPEN_EXCEPTION = new OpenException();
+    private static final CompletableFuture<?> OPEN_FUTURE = CompletableFuture.failedFuture(OPEN_EXCEPTION);
+
+    private volatile Runnable onClosed = () -> {
+    };
+    private volatile Runnable onProbeNeeded = () -> {
+    };
+    private final AtomicLong shortCircuitCount = new AtomicLong();
+    private volatile State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private volatile long retryTime = System.nanoTime();
+    private boolean probeInFlight = false;
+    private long openCount = 0;
+
+    /**
+     * Sets the callback for when the breaker closes after being open, which is called outside of any lock.
+     *
+     * @param onClosed the callback
+     */
+    public void setOnClosed(Runnable onClosed) {
+        this.onClosed = onClosed;
+    }
+
+    /**
+     * Sets the callback for when the backoff elapses while the breaker is open, but no request is queued to be sent as
+     * the probe. The callback may queue requests (such as messages which failed to send before), or do nothing if there
+     * are none; the next new message is then sent as the probe.
+     *
+     * @param onProbeNeeded the callback
+     */
+    public void setOnProbeNeeded(Runnable onProbeNeeded) {
+        this.onProbeNeeded = onProbeNeeded;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * {@return whether new messages should short-circuit instead of being queued} This is the case while the breaker
+     * is open and backing off, or while the probe is in flight. This is a cheap check of volatile fields, for producers
+     * to check before allocating anything for a message.
+     */
+    public boolean isOpen() {
+        final State current = state;
+        return current == State.HALF_OPEN || (current == State.OPEN && retryTime - System.nanoTime() > 0);
+    }
+
+    public synchronized long getOpenCount() {
+        return openCount;
+    }
+
+    public long getShortCircuitCount() {
+        return shortCircuitCount.get();
+    }
+
+    /**
+     * {@return the time in milliseconds until the next request may be sent, or {@code 0} if it may be sent now}
+     */
+    public synchronized long getRetryDelayMillis() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(retryTime - System.nanoTime()));
+    }
+
+    /**
+     * {@return a shared future, already completed exceptionally, for a short-circuited request} Counts the request as
+     * short-circuited.
+     *
+     * @param <T> the type of the future
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> shortCircuit() {
+        shortCircuitCount.incrementAndGet();
+        return (CompletableFuture<T>) OPEN_FUTURE;
+    }
+
+    /**
+     * Checks whether a request may be sent now, without acquiring permission to send it.
+     *
+     * @return {@code 0} if a request may be sent now, the time in nanoseconds until a request may be sent, or
+     * {@code -1} if a probe is in flight (and no request may be sent until it completes)
+     */
+    synchronized long waitNanos(long now) {
+        if (probeInFlight) return -1;
+        final long wait = retryTime - now;
+        return wait > 0 ? wait : 0;
+    }
+
+    /**
+     * Marks a request as sent, which is the probe if the breaker is open. Must only be called once
+     * {@link #waitNanos(long)} returns {@code 0}.
+     */
+    synchronized void onSend() {
+        if (state != State.CLOSED) {
+            state = State.HALF_OPEN;
+            probeInFlight = true;
+            LOGGER.debug(BREAKER, "Sending probe request to Discord");
+        }
+    }
+
+    /**
+     * Records a request which reached Discord, regardless of whether Discord accepted the request.
+     */
+    void recordSuccess() {
+        final boolean closed;
+        synchronized (this) {
+            consecutiveFailures = 0;
+            probeInFlight = false;
+            closed = state != State.CLOSED;
+            state = State.CLOSED;
+        }
+        if (closed) {
+            LOGGER.info(BREAKER, "Connection to Discord recovered; resuming sending messages");
+            onClosed.run();
+        }
+    }
+
+    /**
+     * Releases the probe without recording a result, for a request which failed before reaching Discord (such as by
+     * throwing while being built). The next request is then sent as the probe.
+     */
+    synchronized void releaseProbe() {
+        if (probeInFlight) {
+            probeInFlight = false;
+            state = State.OPEN;
+        }
+    }
+
+    void requestProbe() {
+        onProbeNeeded.run();
+    }
+
+    /**
+     * Records a transient failure of a request.
+     */
+    synchronized void recordFailure() {
+        consecutiveFailures++;
+        probeInFlight = false;
+        final long backoff = backoffNanos(consecutiveFailures);
+        retryTime = System.nanoTime() + backoff;
+        if (state == State.HALF_OPEN || (state == State.CLOSED
+                && consecutiveFailures >= ConcordConfig.BREAKER_FAILURE_THRESHOLD.get())) {
+            if (state == State.CLOSED) {
+                openCount++;
+            }
+            state = State.OPEN;
+            LOGGER.warn(BREAKER, "Sending messages to Discord failed {} time(s) in a row; retrying in {} ms",
+                    consecutiveFailures, TimeUnit.NANOSECONDS.toMillis(backoff));
+        }
+    }
+
+    // Exponential backoff with equal jitter: half of the delay is fixed, the other half is random
+    private static long backoffNanos(int failures) {
+        final long base = TimeUnit.MILLISECONDS.toNanos(ConcordConfig.BREAKER_BASE_BACKOFF.get());
+        final long max = TimeUnit.MILLISECONDS.toNanos(ConcordConfig.BREAKER_MAX_BACKOFF.get());
+        final long delay = Math.min(max, base << Math.min(failures - 1, 20));
+        final long half = Math.max(1, delay / 2);
+        return half + ThreadLocalRandom.current().nextLong(half);
+    }
+
+    /**
+     * {@return whether the given failure of a request is transient} Transient failures are Discord server errors and
+     * network errors; other failures (such as missing permissions) mean Discord is reachable.
+     *
+     * @param throwable the failure
+     */
+    static boolean isTransient(Throwable throwable) {
+        @Nullable Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+        if (cause instanceof ErrorResponseException e) {
+            return e.isServerError();
+        }
+        while (cause != null) {
+            if (cause instanceof IOException) return true;
+            cause = cause.getCause();
+        }
+        return false;
+    }
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /**
+     * The failure of requests which were short-circuited because the circuit breaker is open. The instance is shared
+     * and has no stack trace, as it is thrown for every short-circuited request.
+     */
+    public static final class OpenException extends RuntimeException {
+        private OpenException() {
+            super("Circuit breaker for Discord requests is open", null, false, false);
+        }
+    }
+}
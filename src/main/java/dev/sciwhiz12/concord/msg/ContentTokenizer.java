@@ -0,0 +1,256 @@
+/*
+ * Concord - Copyright (c) 2020 SciWhiz12
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package dev.sciwhiz12.concord.msg;
+
+import com.google.common.base.CharMatcher;
+import net.minecraft.ChatFormatting;
+import net.minecraft.network.chat.Component;
+import net.minecraft.network.chat.MutableComponent;
+import net.minecraft.network.chat.Style;
+import net.minecraft.network.chat.TextColor;
+
+/**
+ * Single-pass scanner which converts the content of a Discord message into a chat component.
+ *
+ * <p>The scanner walks the input once from left to right, emitting plain text runs, veiled links, legacy
+ * ({@code &5}) formatting codes and custom ({@code $red}, {@code $#0000FF}) color codes as it encounters them.
+ * Each enabled token kind only looks ahead a bounded distance from its trigger character (at most the length of a
+ * domain name for links, and the length of a single word for color codes), and a failed attempt never causes an
+ * already scanned region to be scanned again. The time taken is therefore linear in the length of the input,
+ * regardless of its contents.</p>
+ *
+ * <p>Links are matched the same as {@code net.neoforged.neoforge.common.CommonHooks.URL_PATTERN}: an
+ * {@code http://} or {@code https://} scheme, a domain ending with a top-level domain of up to six characters, and
+ * an optional path. Trailing punctuation is not considered part of the link.</p>
+ */
+final class ContentTokenizer {
+    private static final Style DEFAULT_STYLE = Style.EMPTY.applyFormat(ChatFormatting.WHITE);
+    private static final CharMatcher END_PUNCTUATION = CharMatcher.anyOf(".,;:)]\"'");
+    private static final int MAX_DOMAIN_LENGTH = 256;
+    private static final int MAX_TLD_LENGTH = 6;
+    // Longest named color is 'light_purple', and hex colors are '#' followed by six digits
+    private static final int MAX_COLOR_LENGTH = 12;
+
+    private final String input;
+    private final boolean links;
+    private final boolean legacy;
+    private final boolean custom;
+
+    private MutableComponent root;
+    private Style style = DEFAULT_STYLE;
+    private int runStart = 0;
+    // Set by matchUrl and matchColorCode on a successful match
+    private int domainEnd;
+    private int pathEnd;
+    private TextColor codeColor;
+
+    ContentTokenizer(String input, boolean links, boolean legacy, boolean custom) {
+        this.input = input;
+        this.links = links;
+        this.legacy = legacy;
+        this.custom = custom;
+    }
+
+    MutableComponent tokenize() {
+        final int length = input.length();
+        int i = 0;
+        while (i < length) {
+            final char c = input.charAt(i);
+
+            if (links && (c == 'h' || c == 'H')) {
+                final int domainStart = matchUrl(i);
+                if (domainStart != -1) {
+                    final String originalUrl = input.substring(i, pathEnd);
+                    final String url = END_PUNCTUATION.trimTrailingFrom(originalUrl);
+
+                    flushRun(i);
+                    root.append(FormattingUtilities.createLinkComponent(url, input.substring(domainStart, domainEnd)));
+                    // The trimmed trailing punctuation (if any) starts the next plain run
+                    runStart = i + url.length();
+                    i = pathEnd;
+                    continue;
+                }
+            } else if (legacy && c == '&' && i + 1 < length) {
+                final ChatFormatting formatting = ChatFormatting.getByCode(input.charAt(i + 1));
+                if (formatting != null) {
+                    flushRun(i);
+                    style = Style.EMPTY.applyFormat(formatting);
+                    i += 2;
+                    runStart = i;
+                    continue;
+                }
+            } else if (custom && c == '$') {
+                final int codeEnd = matchColorCode(i);
+                if (codeEnd != -1) {
+                    flushRun(i);
+                    style = Style.EMPTY.withColor(codeColor);
+                    // A single space after the code separates it from the text it colors
+                    i = codeEnd < length && input.charAt(codeEnd) == ' ' ? codeEnd + 1 : codeEnd;
+                    runStart = i;
+                    continue;
+                }
+            }
+
+            i++;
+        }
+
+        if (root == null) {
+            // No tokens were found -- return in full
+            return Component.literal(input).withStyle(DEFAULT_STYLE);
+        }
+        flushRun(length);
+        return root;
+    }
+
+    private void flushRun(int end) {
+        if (root == null) {
+            root = Component.literal("");
+        }
+        if (end > runStart) {
+            root.append(Component.literal(input.substring(runStart, end)).withStyle(style));
+        }
+    }
+
+    /**
+     * Attempts to match a link starting at the given position.
+     *
+     * @param start the position of the possible link
+     * @return the start of the link's domain, or {@code -1} if there is no link at the given position
+     */
+    private int matchUrl(int start) {
+        final int hostStart;
+        if (input.regionMatches(true, start, "https://", 0, 8)) {
+            hostStart = start + 8;
+        } else if (input.regionMatches(true, start, "http://", 0, 7)) {
+            hostStart = start + 7;
+        } else {
+            return -1;
+        }
+
+        int end = -1;
+        if (input.regionMatches(true, hostStart, "www.", 0, 4)) {
+            end = matchDomain(hostStart + 4);
+        }
+        if (end == -1) {
+            end = matchDomain(hostStart);
+        }
+        if (end == -1) {
+            return -1;
+        }
+
+        domainEnd = end;
+        int i = end;
+        while (i < input.length() && isPathChar(input.charAt(i))) {
+            i++;
+        }
+        pathEnd = i;
+        return hostStart;
+    }
+
+    /**
+     * Finds the longest domain starting at the given position, consisting of up to {@value #MAX_DOMAIN_LENGTH}
+     * domain characters followed by a dot and a top-level domain which ends at a word boundary.
+     *
+     * @param start the start of the domain, after any {@code www.} prefix
+     * @return the end of the domain, or {@code -1} if there is no valid domain
+     */
+    private int matchDomain(int start) {
+        final int length = input.length();
+        final int limit = Math.min(start + MAX_DOMAIN_LENGTH, length - 1);
+        int labelsEnd = start;
+        while (labelsEnd < limit && isDomainChar(input.charAt(labelsEnd))) {
+            labelsEnd++;
+        }
+
+        // Prefer the rightmost dot, then the longest top-level domain
+        for (int dot = labelsEnd; dot > start; dot--) {
+            if (input.charAt(dot) != '.') continue;
+
+            int tldLength = 0;
+            while (tldLength < MAX_TLD_LENGTH && dot + 1 + tldLength < length
+                    && isTldChar(input.charAt(dot + 1 + tldLength))) {
+                tldLength++;
+            }
+            for (; tldLength > 0; tldLength--) {
+                final int end = dot + 1 + tldLength;
+                if (isWordBoundary(end)) {
+                    return end;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Attempts to match a custom color code starting at the given {@code $} character. A color code is a named color
+     * or a hex color, which ends at a space, the start of another code, or the end of the input.
+     *
+     * @param start the position of the {@code $} character
+     * @return the end of the color code, or {@code -1} if there is no valid color code at the given position
+     */
+    private int matchColorCode(int start) {
+        final int length = input.length();
+        int i = start + 1;
+        if (i < length && input.charAt(i) == '#') {
+            i++;
+        }
+        final int wordStart = i;
+        while (i < length && isWordChar(input.charAt(i))) {
+            i++;
+        }
+        if (i == wordStart || i - (start + 1) > MAX_COLOR_LENGTH) {
+            return -1;
+        }
+        if (i < length && input.charAt(i) != ' ' && input.charAt(i) != '$') {
+            return -1;
+        }
+        codeColor = TextColor.parseColor(input.substring(start + 1, i)).result().orElse(null);
+        return codeColor != null ? i : -1;
+    }
+
+    private boolean isWordBoundary(int position) {
+        final boolean before = position > 0 && isWordChar(input.charAt(position - 1));
+        final boolean after = position < input.length() && isWordChar(input.charAt(position));
+        return before != after;
+    }
+
+    private static boolean isAlphanumeric(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+    private static boolean isWordChar(char c) {
+        return isAlphanumeric(c) || c == '_';
+    }
+
+    private static boolean isDomainChar(char c) {
+        return isAlphanumeric(c) || "-@:%._+~#=".indexOf(c) != -1;
+    }
+
+    private static boolean isTldChar(char c) {
+        return isAlphanumeric(c) || c == '(' || c == ')';
+    }
+
+    private static boolean isPathChar(char c) {
+        return isAlphanumeric(c) || "-()@:%_+.~#?&/=".indexOf(c) != -1;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Concord - Copyright (c) 2020 SciWhiz12
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package dev.sciwhiz12.concord.msg;
+
+/**
+ * Relay for messages from Minecraft to Discord. This is the {@link dev.sciwhiz12.concord.ChatBot} on a server which
+ * holds the Discord connection itself, and the link to the hub on a server which shares the connection of a hub.
+ */
+public interface DiscordRelay {
+    /**
+     * Relays a message to the channel configured for the given category of messages.
+     *
+     * @param message  the message
+     * @param category the category of the message
+     */
+    void relayToDiscord(String message, MessageCategory category);
+
+    /**
+     * Updates the player count shown in the activity of the bot, after players join or leave.
+     *
+     * @param offset the offset to the amount of players on the player list, for players who are still on the player
+     *               list while leaving
+     */
+    void updateActivity(int offset);
+}
@@ -0,0 +1,129 @@
+/*
+ * Concord - Copyright (c) 2020 SciWhiz12
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package dev.sciwhiz12.concord.msg;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * Message store kept in the heap, which is lost when the server stops.
+ *
+ * <p>Messages are kept in insertion order up to a fixed count, and the oldest messages are evicted once the store is
+ * full or they have expired. A counting Bloom filter over the stored snowflakes answers most lookups for messages
+ * which were not sent by Concord without taking the lock on the store.</p>
+ */
+final class HeapMessageStore implements MessageStore {
+    private static final int MAX_MESSAGES = 20_000;
+    // Approximate size of an entry in the store, excluding the encoded message
+    private static final int ENTRY_OVERHEAD = 112;
+    // About 6.5 counters per message with three hashes, for a false positive rate of around 5%
+    private static final int FILTER_SIZE = 1 << 17;
+    private static final int FILTER_HASHES = 3;
+
+    private final Long2ObjectLinkedOpenHashMap<Entry> entries = new Long2ObjectLinkedOpenHashMap<>(1_000);
+    // Counters saturate at 255 (read as unsigned), after which they are never decremented
+    private final byte[] filter = new byte[FILTER_SIZE];
+    private long messageBytes = 0;
+
+    @Override
+    public synchronized void put(long snowflake, Entry entry) {
+        final @Nullable Entry existing = entries.get(snowflake);
+        if (existing != null) {
+            // Replacing keeps the original position in the insertion order
+            entries.put(snowflake, entry);
+            messageBytes += entry.message().length - existing.message().length;
+            return;
+        }
+
+        evict(entry.rememberedAt());
+        entries.put(snowflake, entry);
+        messageBytes += entry.message().length;
+        updateFilter(snowflake, 1);
+    }
+
+    @Override
+    public @Nullable Entry get(long snowflake) {
+        if (!mightContain(snowflake)) {
+            return null;
+        }
+
+        final @Nullable Entry entry;
+        synchronized (this) {
+            entry = entries.get(snowflake);
+        }
+        return entry != null && !entry.isExpired(System.currentTimeMillis()) ? entry : null;
+    }
+
+    @Override
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized long estimateFootprint() {
+        return FILTER_SIZE + messageBytes + (long) entries.size() * ENTRY_OVERHEAD;
+    }
+
+    // Must be called while holding the lock
+    private void evict(long now) {
+        while (!entries.isEmpty()) {
+            final long oldest = entries.firstLongKey();
+            final Entry entry = entries.get(oldest);
+            if (entries.size() < MAX_MESSAGES && !entry.isExpired(now)) {
+                break;
+            }
+            entries.removeFirst();
+            messageBytes -= entry.message().length;
+            updateFilter(oldest, -1);
+        }
+    }
+
+    // Must be called while holding the lock
+    private void updateFilter(long snowflake, int delta) {
+        final long hash = HashCommon.mix(snowflake);
+        final int first = (int) hash;
+        final int second = (int) (hash >>> 32);
+        for (int i = 0; i < FILTER_HASHES; i++) {
+            final int index = (first + i * second) & (FILTER_SIZE - 1);
+            final int count = filter[index] & 0xFF;
+            if (count != 0xFF) {
+                filter[index] = (byte) (count + delta);
+            }
+        }
+    }
+
+    // Read without the lock; a stale read can only miss a message which is being stored at the same time
+    private boolean mightContain(long snowflake) {
+        final long hash = HashCommon.mix(snowflake);
+        final int first = (int) hash;
+        final int second = (int) (hash >>> 32);
+        for (int i = 0; i < FILTER_HASHES; i++) {
+            if (filter[(first + i * second) & (FILTER_SIZE - 1)] == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Concord - Copyright (c) 2020 SciWhiz12
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package dev.sciwhiz12.concord.msg;
+
+import dev.sciwhiz12.concord.ConcordConfig;
+
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static dev.sciwhiz12.concord.Concord.LOGGER;
+
+// Bounded multi-producer queue, with a separate lane for each MessageLane
+final class LanedMessageQueue {
+    private final Map<MessageLane, Lane> lanes = new EnumMap<>(MessageLane.class);
+
+    LanedMessageQueue() {
+        for (MessageLane lane : MessageLane.values()) {
+            lanes.put(lane, new Lane(lane));
+        }
+    }
+
+    void offer(MessageLane lane, Messaging.MessageEntry entry) {
+        lanes.get(lane).offer(entry);
+    }
+
+    /**
+     * Drains all lanes, by taking messages from each lane in turn up to the lane's weight, until each lane has given up
+     * the messages it held when draining started. Messages added to the lanes while draining are left for the next
+     * drain, so steady producers cannot keep a single drain running indefinitely.
+     */
+    void drain(Consumer<Messaging.MessageEntry> consumer) {
+        final Map<MessageLane, Integer> budgets = new EnumMap<>(MessageLane.class);
+        for (Lane lane : lanes.values()) {
+            budgets.put(lane.lane, lane.size());
+        }
+
+        boolean drained;
+        do {
+            drained = false;
+            for (Lane lane : lanes.values()) {
+                final int budget = budgets.get(lane.lane);
+                final int take = Math.min(budget, ConcordConfig.LANES.get(lane.lane).weight().get());
+                int taken = 0;
+                while (taken < take) {
+                    final @Nullable Messaging.MessageEntry entry = lane.poll();
+                    if (entry == null) break;
+                    consumer.accept(entry);
+                    taken++;
+                }
+                if (taken > 0) {
+                    budgets.put(lane.lane, budget - taken);
+                    drained = true;
+                }
+            }
+        } while (drained);
+    }
+
+    int getDepth(MessageLane lane) {
+        return lanes.get(lane).size();
+    }
+
+    long getDroppedCount(MessageLane lane) {
+        return lanes.get(lane).dropped.get();
+    }
+
+    long getMergedCount(MessageLane lane) {
+        return lanes.get(lane).merged.get();
+    }
+
+    private static final class Lane {
+        private final MessageLane lane;
+        private final Deque<Messaging.MessageEntry> entries = new ArrayDeque<>();
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong merged = new AtomicLong();
+
+        Lane(MessageLane lane) {
+            this.lane = lane;
+        }
+
+        void offer(Messaging.MessageEntry entry) {
+            final ConcordConfig.LaneSettings settings = ConcordConfig.LANES.get(lane);
+            final @Nullable Messaging.MessageEntry droppedEntry;
+            synchronized (this) {
+                if (entries.size() < settings.capacity().get()) {
+                    entries.add(entry);
+                    return;
+                }
+
+                droppedEntry = switch (settings.overflow().get()) {
+                    case DROP_OLDEST -> {
+                        final Messaging.MessageEntry oldest = entries.poll();
+                        entries.add(entry);
+                        yield oldest;
+                    }
+                    case DROP_NEWEST -> entry;
+                    case MERGE -> {
+                        if (entries.peekLast() instanceof Messaging.DiscordBound last
+                                && entry instanceof Messaging.DiscordBound added) {
+                            final @Nullable Messaging.DiscordBound mergedEntry = last.mergeWith(added);
+                            if (mergedEntry != null) {
+                                entries.pollLast();
+                                entries.add(mergedEntry);
+                                merged.incrementAndGet();
+                                yield null;
+                            }
+                        }
+                        yield entry;
+                    }
+                };
+            }
+
+            if (droppedEntry != null) {
+                dropped.incrementAndGet();
+                LOGGER.debug("Message lane {} is full, dropped message: {}", lane, droppedEntry);
+                droppedEntry.future().completeExceptionally(
+                        new RejectedExecutionException("Message dropped from full " + lane + " message lane"));
+            }
+        }
+
+        @Nullable
+        synchronized Messaging.MessageEntry poll() {
+            return entries.poll();
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+    }
+}
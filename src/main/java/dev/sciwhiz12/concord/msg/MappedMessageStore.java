@@ -0,0 +1,332 @@
+/*
+ * Concord - Copyright (c) 2020 SciWhiz12
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package dev.sciwhiz12.concord.msg;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+import sun.misc.Unsafe;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static dev.sciwhiz12.concord.Concord.LOGGER;
+
+/**
+ * Message store kept in a memory-mapped file, which persists across server restarts.
+ *
+ * <p>The file has a fixed size, and is made up of a header, an index of snowflakes, and an append-only ring of
+ * message records. Opening the store only maps the file; nothing is read into the heap until a message is looked
+ * up. Once the ring is full, new records overwrite the oldest records, which reclaims the space of old messages by
+ * their age and the size of the file.</p>
+ *
+ * <p>The index is an open-addressing hash table of slots, each holding a snowflake and the position of its record.
+ * Positions are logical (counting every byte ever written to the ring), so a record is known to be overwritten once
+ * the write position is more than the size of the ring past it; slots pointing at such records are reused. Lookups
+ * and insertions probe at most {@value #MAX_PROBES} slots, so both take constant time.</p>
+ *
+ * <p>The file is laid out as follows:</p>
+ * <pre>
+ * header:  int magic, int version, int slot count, int ring size, long write position
+ * index:   (long snowflake, long position) for each slot; a snowflake of 0 marks an empty slot
+ * ring:    records of (int length, long snowflake, long remembered at, long player UUID most significant bits,
+ *          long player UUID least significant bits, short name length, UTF-8 name, encoded message)
+ * </pre>
+ */
+final class MappedMessageStore implements MessageStore {
+    private static final Marker STORE = MarkerFactory.getMarker("MESSAGE_STORE");
+    private static final int MAGIC = 0x434E4D53; // 'CNMS'
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int WRITE_POSITION_OFFSET = 16;
+    private static final int SLOT_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 4 + 8 + 8 + 8 + 8 + 2;
+    private static final int MAX_PROBES = 16;
+    @Nullable
+    private static final Unsafe UNSAFE = findUnsafe();
+
+    private final long fileSize;
+    private final int slotCount;
+    private final int ringStart;
+    private final int ringSize;
+    @Nullable
+    private MappedByteBuffer buffer;
+    private long writePosition;
+
+    private MappedMessageStore(MappedByteBuffer buffer, long fileSize, int slotCount) {
+        this.buffer = buffer;
+        this.fileSize = fileSize;
+        this.slotCount = slotCount;
+        this.ringStart = HEADER_SIZE + slotCount * SLOT_SIZE;
+        this.ringSize = (int) (fileSize - ringStart);
+    }
+
+    /**
+     * Opens the store in the given file, creating it if it does not exist. If the existing file was created with a
+     * different size or format, it is replaced by an empty store.
+     *
+     * @param file     the path to the file
+     * @param fileSize the size of the file, in bytes
+     */
+    static MappedMessageStore open(Path file, long fileSize) throws IOException {
+        Files.createDirectories(file.getParent());
+        // A quarter of the file is used for the index, which leaves about twice as many slots as records
+        final int slotCount = Integer.highestOneBit((int) Math.min(fileSize / (4 * SLOT_SIZE), 1 << 24));
+        final int ringSize = (int) (fileSize - HEADER_SIZE - (long) slotCount * SLOT_SIZE);
+
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final boolean existing = channel.size() == fileSize;
+            if (!existing) {
+                // The mapping extends the file with zeroes
+                channel.truncate(0);
+            }
+            // The mapping stays valid after the channel is closed
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+            final MappedMessageStore store = new MappedMessageStore(buffer, fileSize, slotCount);
+
+            if (existing && buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION
+                    && buffer.getInt(8) == slotCount && buffer.getInt(12) == ringSize
+                    && buffer.getLong(WRITE_POSITION_OFFSET) >= 0) {
+                store.writePosition = buffer.getLong(WRITE_POSITION_OFFSET);
+            } else {
+                if (existing) {
+                    LOGGER.info(STORE, "Replacing message store {} created with a different size or format", file);
+                    for (int i = 0; i < HEADER_SIZE + slotCount * SLOT_SIZE; i += 8) {
+                        buffer.putLong(i, 0);
+                    }
+                }
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, slotCount);
+                buffer.putInt(12, ringSize);
+                buffer.putLong(WRITE_POSITION_OFFSET, 0);
+            }
+            return store;
+        }
+    }
+
+    @Override
+    public synchronized void put(long snowflake, Entry entry) {
+        final MappedByteBuffer buf = buffer;
+        if (buf == null) return;
+
+        final byte[] name = entry.playerName().getBytes(StandardCharsets.UTF_8);
+        final int length = RECORD_HEADER_SIZE + name.length + entry.message().length;
+        if (length > ringSize || name.length > Short.MAX_VALUE) {
+            LOGGER.debug(STORE, "Message is too large to be stored, and will not be remembered");
+            return;
+        }
+
+        // Records never wrap around the end of the ring; skip to the start of the ring if there is not enough space
+        long position = writePosition;
+        int offset = (int) (position % ringSize);
+        if (offset + length > ringSize) {
+            position += ringSize - offset;
+            offset = 0;
+        }
+
+        final int start = ringStart + offset;
+        buf.putInt(start, length);
+        buf.putLong(start + 4, snowflake);
+        buf.putLong(start + 12, entry.rememberedAt());
+        buf.putLong(start + 20, entry.playerMost());
+        buf.putLong(start + 28, entry.playerLeast());
+        buf.putShort(start + 36, (short) name.length);
+        buf.put(start + RECORD_HEADER_SIZE, name);
+        buf.put(start + RECORD_HEADER_SIZE + name.length, entry.message());
+
+        writePosition = position + length;
+        buf.putLong(WRITE_POSITION_OFFSET, writePosition);
+
+        final int slot = findSlotForInsert(buf, snowflake);
+        buf.putLong(slotOffset(slot), snowflake);
+        buf.putLong(slotOffset(slot) + 8, position);
+    }
+
+    @Override
+    public @Nullable Entry get(long snowflake) {
+        final byte[] name;
+        final byte[] message;
+        final long rememberedAt, playerMost, playerLeast;
+        synchronized (this) {
+            final MappedByteBuffer buf = buffer;
+            if (buf == null) return null;
+
+            final long position = findPosition(buf, snowflake);
+            if (position == -1) return null;
+
+            // isLive has already checked that the record header is within the ring
+            final int offset = (int) (position % ringSize);
+            final int start = ringStart + offset;
+            final int length = buf.getInt(start);
+            final short nameLength = buf.getShort(start + 36);
+            if (nameLength < 0 || length < RECORD_HEADER_SIZE + nameLength || length > ringSize - offset) {
+                LOGGER.warn(STORE, "Ignoring corrupted record for message {} in message store", snowflake);
+                return null;
+            }
+
+            rememberedAt = buf.getLong(start + 12);
+            playerMost = buf.getLong(start + 20);
+            playerLeast = buf.getLong(start + 28);
+            name = new byte[nameLength];
+            buf.get(start + RECORD_HEADER_SIZE, name);
+            message = new byte[length - RECORD_HEADER_SIZE - nameLength];
+            buf.get(start + RECORD_HEADER_SIZE + name.length, message);
+        }
+
+        final Entry entry = new Entry(playerMost, playerLeast, new String(name, StandardCharsets.UTF_8), message,
+                rememberedAt);
+        return !entry.isExpired(System.currentTimeMillis()) ? entry : null;
+    }
+
+    @Override
+    public synchronized int size() {
+        final MappedByteBuffer buf = buffer;
+        if (buf == null) return 0;
+
+        final long now = System.currentTimeMillis();
+        int count = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            final long snowflake = buf.getLong(slotOffset(slot));
+            final long position = buf.getLong(slotOffset(slot) + 8);
+            if (snowflake != 0 && isLive(buf, snowflake, position)
+                    && now - buf.getLong(ringStart + (int) (position % ringSize) + 12) <= EXPIRY_MILLIS) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public long estimateFootprint() {
+        return fileSize;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (buffer != null) {
+            buffer.force();
+            unmap(buffer);
+            buffer = null;
+        }
+    }
+
+    /**
+     * Unmaps the buffer right away, instead of once it is garbage collected, so the file can be truncated when the store
+     * is reopened with a different size (which fails on Windows while the file is still mapped). The buffer must not be
+     * used afterwards; all uses of the buffer hold the lock, and check that it was not cleared by {@link #close()}.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        if (UNSAFE != null) {
+            UNSAFE.invokeCleaner(buffer);
+        }
+    }
+
+    @Nullable
+    private static Unsafe findUnsafe() {
+        try {
+            final Field field = Unsafe.class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return (Unsafe) field.get(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.debug(STORE, "Message stores cannot be unmapped when closed, only once garbage collected", e);
+            return null;
+        }
+    }
+
+    // Must be called while holding the lock
+    private long findPosition(MappedByteBuffer buf, long snowflake) {
+        final int home = home(snowflake);
+        for (int i = 0; i < MAX_PROBES; i++) {
+            final int offset = slotOffset((home + i) & (slotCount - 1));
+            final long key = buf.getLong(offset);
+            if (key == 0) break; // End of the probe chain
+            if (key == snowflake) {
+                final long position = buf.getLong(offset + 8);
+                return isLive(buf, snowflake, position) ? position : -1;
+            }
+        }
+        return -1;
+    }
+
+    // Must be called while holding the lock
+    private int findSlotForInsert(MappedByteBuffer buf, long snowflake) {
+        final int home = home(snowflake);
+        int reusable = -1;
+        int oldest = home;
+        long oldestPosition = Long.MAX_VALUE;
+        for (int i = 0; i < MAX_PROBES; i++) {
+            final int slot = (home + i) & (slotCount - 1);
+            final long key = buf.getLong(slotOffset(slot));
+            if (key == snowflake) {
+                return slot;
+            }
+            if (key == 0) {
+                // End of the probe chain, so the snowflake cannot be in a later slot
+                return reusable != -1 ? reusable : slot;
+            }
+
+            final long position = buf.getLong(slotOffset(slot) + 8);
+            if (reusable == -1 && !isLive(buf, key, position)) {
+                reusable = slot;
+            }
+            if (position < oldestPosition) {
+                oldest = slot;
+                oldestPosition = position;
+            }
+        }
+        // Every probed slot is in use by a live record, so the slot of the oldest record is given up
+        return reusable != -1 ? reusable : oldest;
+    }
+
+    // Must be called while holding the lock
+    private boolean isLive(MappedByteBuffer buf, long snowflake, long position) {
+        if (position < 0 || position < writePosition - ringSize || position >= writePosition) {
+            // Overwritten by newer records (or a corrupted position)
+            return false;
+        }
+        final int offset = (int) (position % ringSize);
+        if (offset > ringSize - RECORD_HEADER_SIZE) {
+            // Records never wrap around the end of the ring, so the header of a record cannot start here; the file is
+            // corrupted (such as by a crash while it was being written)
+            return false;
+        }
+        return buf.getLong(ringStart + offset + 4) == snowflake;
+    }
+
+    private int home(long snowflake) {
+        return (int) HashCommon.mix(snowflake) & (slotCount - 1);
+    }
+
+    private static int slotOffset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Concord - Copyright (c) 2020 SciWhiz12
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package dev.sciwhiz12.concord.msg;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import dev.sciwhiz12.concord.ConcordConfig;
+import net.dv8tion.jda.api.Permission;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberRemoveEvent;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberRoleAddEvent;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberRoleRemoveEvent;
+import net.dv8tion.jda.api.events.guild.member.update.GenericGuildMemberUpdateEvent;
+import net.dv8tion.jda.api.events.guild.update.GuildUpdateOwnerEvent;
+import net.dv8tion.jda.api.events.role.RoleCreateEvent;
+import net.dv8tion.jda.api.events.role.RoleDeleteEvent;
+import net.dv8tion.jda.api.events.role.update.GenericRoleUpdateEvent;
+import net.dv8tion.jda.api.events.user.GenericUserPresenceEvent;
+import net.dv8tion.jda.api.events.user.update.GenericUserUpdateEvent;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import net.minecraft.network.chat.MutableComponent;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Cache of the rendered components for Discord members, keyed by the member and the rendering variant. The cache is
+ * invalidated by the JDA events which change how a member is rendered, such as role changes, member updates, and
+ * presence updates.
+ *
+ * <p>Cached components are shared between renders, so they must never be modified; callers receive copies.</p>
+ */
+public class MemberComponentCache extends ListenerAdapter {
+    private final Cache<Long, Map<Variant, CachedMember>> members = CacheBuilder.newBuilder()
+            .maximumSize(1_000)
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .build();
+    // Guild ID to whether the guild has a hoisted role with the Administrator permission
+    private final Map<Long, Boolean> hoistedAdministrators = new ConcurrentHashMap<>();
+
+    CachedMember get(Member member, Variant variant, Supplier<CachedMember> creator) {
+        return members.asMap().computeIfAbsent(member.getIdLong(), k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(variant, k -> creator.get());
+    }
+
+    /**
+     * {@return whether the given guild has a hoisted role with the Administrator permission}
+     *
+     * @param guild the guild
+     */
+    boolean hasHoistedAdministrator(Guild guild) {
+        return hoistedAdministrators.computeIfAbsent(guild.getIdLong(), k -> guild.getRoleCache().streamUnordered()
+                .anyMatch(role -> role.isHoisted() && role.hasPermission(Permission.ADMINISTRATOR)));
+    }
+
+    public void invalidate(long memberId) {
+        members.invalidate(memberId);
+    }
+
+    public void invalidateAll() {
+        members.invalidateAll();
+        hoistedAdministrators.clear();
+    }
+
+    @Override
+    public void onGuildMemberRoleAdd(GuildMemberRoleAddEvent event) {
+        invalidate(event.getMember().getIdLong());
+    }
+
+    @Override
+    public void onGuildMemberRoleRemove(GuildMemberRoleRemoveEvent event) {
+        invalidate(event.getMember().getIdLong());
+    }
+
+    @Override
+    public void onGenericGuildMemberUpdate(GenericGuildMemberUpdateEvent event) {
+        invalidate(event.getMember().getIdLong());
+    }
+
+    @Override
+    public void onGuildMemberRemove(GuildMemberRemoveEvent event) {
+        invalidate(event.getUser().getIdLong());
+    }
+
+    @Override
+    public void onGenericUserUpdate(GenericUserUpdateEvent event) {
+        invalidate(event.getUser().getIdLong());
+    }
+
+    @Override
+    public void onGenericUserPresence(GenericUserPresenceEvent event) {
+        invalidate(event.getMember().getIdLong());
+    }
+
+    // Role changes may affect any member (and the hoisted administrator role), so invalidate everything
+
+    @Override
+    public void onGenericRoleUpdate(GenericRoleUpdateEvent event) {
+        invalidateAll();
+    }
+
+    @Override
+    public void onRoleCreate(RoleCreateEvent event) {
+        invalidateAll();
+    }
+
+    @Override
+    public void onRoleDelete(RoleDeleteEvent event) {
+        invalidateAll();
+    }
+
+    @Override
+    public void onGuildUpdateOwner(GuildUpdateOwnerEvent event) {
+        invalidateAll();
+    }
+
+    /**
+     * The rendering variant of a member's components.
+     *
+     * @param customFont      whether the custom icons font is used
+     * @param crownVisibility when the owner crown is visible
+     * @param showRoles       whether the member's roles are shown
+     */
+    record Variant(boolean customFont, ConcordConfig.CrownVisibility crownVisibility, boolean showRoles) {
+    }
+
+    /**
+     * The rendered components of a member.
+     *
+     * @param hover the hover text of the member, with the member's roles if shown
+     * @param name  the name of the member, with the hover text
+     */
+    record CachedMember(MutableComponent hover, MutableComponent name) {
+    }
+}
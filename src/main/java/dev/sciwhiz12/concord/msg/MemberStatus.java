@@ -24,9 +24,12 @@ package dev.sciwhiz12.concord.msg;
 
 import dev.sciwhiz12.concord.util.Translation;
 import dev.sciwhiz12.concord.util.Translations;
+import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.OnlineStatus;
 import net.dv8tion.jda.api.entities.Activity;
 import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.requests.GatewayIntent;
+import net.dv8tion.jda.api.utils.cache.CacheFlag;
 import net.minecraft.network.chat.TextColor;
 
 public enum MemberStatus {
@@ -77,6 +80,19 @@ public enum MemberStatus {
         };
     }
 
+    /**
+     * {@return whether the online status of members is tracked} The online status is not tracked if the presence
+     * intent or the online status cache flag is disabled (such as in the
+     * {@linkplain dev.sciwhiz12.concord.ConcordConfig.CacheProfile#LEAN lean cache profile}), in which case
+     * {@link #from(Member)} does not reflect the actual status of members.
+     *
+     * @param discord the JDA instance
+     */
+    public static boolean isTracked(JDA discord) {
+        return discord.getGatewayIntents().contains(GatewayIntent.GUILD_PRESENCES)
+                && discord.getCacheFlags().contains(CacheFlag.ONLINE_STATUS);
+    }
+
     public static MemberStatus from(Member member) {
         return switch (member.getOnlineStatus()) {
             case ONLINE -> ONLINE;
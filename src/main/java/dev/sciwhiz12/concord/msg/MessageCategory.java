@@ -0,0 +1,67 @@
+/*
+ * Concord - Copyright (c) 2020 SciWhiz12
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package dev.sciwhiz12.concord.msg;
+
+/**
+ * The categories of messages to Discord. Each category can be posted in its own channel, as configured in
+ * {@link dev.sciwhiz12.concord.ConcordConfig#CHANNEL_ROUTES}, and is queued in one of the {@linkplain MessageLane
+ * message lanes}.
+ */
+public enum MessageCategory {
+    /**
+     * Chat messages, always posted in the chat channel.
+     */
+    CHAT("chat", MessageLane.CHAT),
+    /**
+     * Lifecycle messages, such as the server or the Discord integration starting or stopping.
+     */
+    LIFECYCLE("lifecycle", MessageLane.LIFECYCLE),
+    /**
+     * Player join and leave messages.
+     */
+    JOIN_LEAVE("join_leave", MessageLane.GAME_EVENTS),
+    /**
+     * Player death messages.
+     */
+    DEATHS("deaths", MessageLane.GAME_EVENTS),
+    /**
+     * Player advancement messages.
+     */
+    ADVANCEMENTS("advancements", MessageLane.GAME_EVENTS);
+
+    private final String configName;
+    private final MessageLane lane;
+
+    MessageCategory(String configName, MessageLane lane) {
+        this.configName = configName;
+        this.lane = lane;
+    }
+
+    public String configName() {
+        return configName;
+    }
+
+    public MessageLane lane() {
+        return lane;
+    }
+}
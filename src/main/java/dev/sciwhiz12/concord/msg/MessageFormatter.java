@@ -25,45 +25,51 @@ package dev.sciwhiz12.concord.msg;
 import com.mojang.authlib.GameProfile;
 import dev.sciwhiz12.concord.ConcordConfig;
 import dev.sciwhiz12.concord.util.Translations;
-import net.dv8tion.jda.api.Permission;
 import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.entities.Message;
-import net.dv8tion.jda.api.entities.MessageReference;
 import net.dv8tion.jda.api.entities.Role;
 import net.dv8tion.jda.api.entities.sticker.StickerItem;
 import net.minecraft.ChatFormatting;
 import net.minecraft.network.chat.*;
-import net.minecraft.server.level.ServerPlayer;
-import net.minecraft.server.players.PlayerList;
 
 import javax.annotation.Nullable;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 import java.util.function.Predicate;
 
 import static net.minecraft.ChatFormatting.*;
 
 class MessageFormatter {
-    static MutableComponent createUserHover(boolean useIcons, ConcordConfig.CrownVisibility crownVisibility, Member member) {
-        final MemberStatus status = MemberStatus.from(member);
-
+    static MutableComponent createUserHover(MemberComponentCache memberCache, boolean useIcons,
+                                           ConcordConfig.CrownVisibility crownVisibility, Member member) {
         final boolean showCrown = switch (crownVisibility) {
             case ALWAYS -> member.isOwner(); // Always show for the owner
             case NEVER -> false; // Never show
             case WITHOUT_ADMINISTRATORS -> member.isOwner() // Show if owner and there are no hoisted Admin roles
-                    && member.getGuild().getRoleCache().streamUnordered()
-                    .noneMatch(role -> role.isHoisted() && role.hasPermission(Permission.ADMINISTRATOR));
-            // TODO: cache the result of the above stream
+                    && !memberCache.hasHoistedAdministrator(member.getGuild());
         };
 
         final MutableComponent ownerIcon = Component.literal(String.valueOf(MemberStatus.CROWN_ICON))
                 .withStyle(style -> style.withColor(Messaging.CROWN_COLOR));
         final MutableComponent ownerText = showCrown ? Component.empty().append(ownerIcon).append(" ") : Component.empty();
-        final MutableComponent statusIcon = Component.literal(String.valueOf(status.getIcon()))
-                .withStyle(style -> style.withColor(status.getColor()));
-
         // Use Concord icon font if configured and told to do so
         if (ConcordConfig.USE_CUSTOM_FONT.get() && useIcons) {
             ownerIcon.withStyle(style -> style.withFont(Messaging.ICONS_FONT));
+        }
+
+        if (!MemberStatus.isTracked(member.getJDA())) {
+            // Without presence data, the status would always show as offline, so leave it out
+            return Translations.HOVER_HEADER_NO_STATUS.component(
+                    Component.literal(member.getUser().getName()).withStyle(WHITE),
+                    ownerText
+            ).withStyle(DARK_GRAY);
+        }
+
+        final MemberStatus status = MemberStatus.from(member);
+        final MutableComponent statusIcon = Component.literal(String.valueOf(status.getIcon()))
+                .withStyle(style -> style.withColor(status.getColor()));
+        if (ConcordConfig.USE_CUSTOM_FONT.get() && useIcons) {
             statusIcon.withStyle(style -> style.withFont(Messaging.ICONS_FONT));
         }
 
@@ -76,9 +82,34 @@ class MessageFormatter {
         ).withStyle(DARK_GRAY);
     }
 
-    static MutableComponent createUserComponent(boolean useIcons, ConcordConfig.CrownVisibility crownVisibility,
-                                                boolean showRoles, Member member, @Nullable MutableComponent replyMessage) {
-        final MutableComponent hover = createUserHover(useIcons, crownVisibility, member);
+    static MutableComponent createUserComponent(MemberComponentCache memberCache, boolean useIcons,
+                                                ConcordConfig.CrownVisibility crownVisibility, boolean showRoles,
+                                                Member member, @Nullable MutableComponent replyMessage) {
+        final MemberComponentCache.Variant variant = new MemberComponentCache.Variant(
+                useIcons && ConcordConfig.USE_CUSTOM_FONT.get(), crownVisibility, showRoles);
+        final MemberComponentCache.CachedMember cached = memberCache.get(member, variant, () -> {
+            final MutableComponent hover = createUserHoverWithRoles(memberCache, useIcons, crownVisibility, showRoles, member);
+            return new MemberComponentCache.CachedMember(hover, createNameComponent(member, hover));
+        });
+
+        if (replyMessage == null) {
+            // The cached components are shared, so only hand out copies
+            return cached.name().copy();
+        }
+
+        final MutableComponent hover = cached.hover().copy();
+        hover.append("\n")
+                .append(Translations.HOVER_REPLY.component(
+                                replyMessage.withStyle(WHITE))
+                        .withStyle(GRAY)
+                );
+        return createNameComponent(member, hover);
+    }
+
+    private static MutableComponent createUserHoverWithRoles(MemberComponentCache memberCache, boolean useIcons,
+                                                             ConcordConfig.CrownVisibility crownVisibility,
+                                                             boolean showRoles, Member member) {
+        final MutableComponent hover = createUserHover(memberCache, useIcons, crownVisibility, member);
 
         if (showRoles) {
             final List<Role> roles = member.getRoles().stream()
@@ -96,14 +127,10 @@ class MessageFormatter {
             }
         }
 
-        if (replyMessage != null) {
-            hover.append("\n")
-                    .append(Translations.HOVER_REPLY.component(
-                                    replyMessage.withStyle(WHITE))
-                            .withStyle(GRAY)
-                    );
-        }
+        return hover;
+    }
 
+    private static MutableComponent createNameComponent(Member member, MutableComponent hover) {
         return Component.literal(member.getEffectiveName())
                 .withStyle(style -> style
                         .withHoverEvent(new HoverEvent(HoverEvent.Action.SHOW_TEXT, hover))
@@ -112,12 +139,7 @@ class MessageFormatter {
 
     static MutableComponent createContentComponent(Message message) {
         final String content = message.getContentDisplay();
-        final MutableComponent text;
-        if (ConcordConfig.VEILED_LINKS.get()) {
-            text = FormattingUtilities.redactLinks(content);
-        } else {
-            text = FormattingUtilities.processCustomFormatting(content);
-        }
+        final MutableComponent text = FormattingUtilities.processContent(content);
 
         boolean skipSpace = content.length() <= 0 || Character.isWhitespace(content.codePointAt(content.length() - 1));
         for (StickerItem sticker : message.getStickers()) {
@@ -174,47 +196,45 @@ class MessageFormatter {
     }
 
     static MutableComponent createMessage(boolean useIcons, ConcordConfig.CrownVisibility crownVisibility,
-                                          Member member, SentMessageMemory messageMemory, PlayerList playerList, Message message) {
-        final MessageReference reference = message.getMessageReference();
+                                          Member member, MemberComponentCache memberCache,
+                                          SentMessageMemory messageMemory, Map<UUID, Component> playerNames,
+                                          Message message, @Nullable Message referencedMessage) {
         final boolean showRoles = !ConcordConfig.HIDE_ROLES.get();
-        final MutableComponent userComponent = createUserComponent(useIcons, crownVisibility, showRoles, member, null);
+        final MutableComponent userComponent = createUserComponent(memberCache, useIcons, crownVisibility, showRoles, member, null);
         MutableComponent text = createContentComponent(message);
 
-        if (reference != null) {
-            final Message referencedMessage = reference.getMessage();
-            if (referencedMessage != null) {
-                MutableComponent referencedUserComponent = null;
-
-                final Member referencedMember = referencedMessage.getMember();
-                if (referencedMember != null) {
-                    referencedUserComponent = createUserComponent(useIcons, crownVisibility, showRoles, referencedMember,
-                            createContentComponent(referencedMessage));
-                }
+        if (referencedMessage != null) {
+            MutableComponent referencedUserComponent = null;
 
-                final SentMessageMemory.RememberedMessage memory = messageMemory.findMessage(referencedMessage.getIdLong());
-                if (memory != null) {
-                    final GameProfile playerProfile = memory.player();
-                    final ServerPlayer player = playerList.getPlayer(playerProfile.getId());
-                    if (player != null) {
-                        referencedUserComponent = player.getDisplayName().copy();
-                    } else {
-                        referencedUserComponent = Component.literal(playerProfile.getName()).withStyle(ITALIC);
-                    }
-                    referencedUserComponent = referencedUserComponent
-                            .withStyle(style -> style.withHoverEvent(new HoverEvent(HoverEvent.Action.SHOW_TEXT, memory.message())));
-                }
+            final Member referencedMember = referencedMessage.getMember();
+            if (referencedMember != null) {
+                referencedUserComponent = createUserComponent(memberCache, useIcons, crownVisibility, showRoles, referencedMember,
+                        createContentComponent(referencedMessage));
+            }
 
-                if (referencedUserComponent == null) {
-                    // Fallback to an unknown user
-                    referencedUserComponent = Translations.CHAT_REPLY_UNKNOWN.component()
-                            .withStyle(style -> style.withHoverEvent(
-                                    new HoverEvent(HoverEvent.Action.SHOW_TEXT, createContentComponent(referencedMessage))));
+            final SentMessageMemory.RememberedMessage memory = messageMemory.findMessage(referencedMessage.getIdLong());
+            if (memory != null) {
+                final GameProfile playerProfile = memory.player();
+                final Component playerName = playerNames.get(playerProfile.getId());
+                if (playerName != null) {
+                    referencedUserComponent = playerName.copy();
+                } else {
+                    referencedUserComponent = Component.literal(playerProfile.getName()).withStyle(ITALIC);
                 }
+                referencedUserComponent = referencedUserComponent
+                        .withStyle(style -> style.withHoverEvent(new HoverEvent(HoverEvent.Action.SHOW_TEXT, memory.message())));
+            }
 
-                text = Translations.CHAT_REPLY_USER.component(referencedUserComponent)
-                        .withStyle(ChatFormatting.GRAY)
-                        .append(text);
+            if (referencedUserComponent == null) {
+                // Fallback to an unknown user
+                referencedUserComponent = Translations.CHAT_REPLY_UNKNOWN.component()
+                        .withStyle(style -> style.withHoverEvent(
+                                new HoverEvent(HoverEvent.Action.SHOW_TEXT, createContentComponent(referencedMessage))));
             }
+
+            text = Translations.CHAT_REPLY_USER.component(referencedUserComponent)
+                    .withStyle(ChatFormatting.GRAY)
+                    .append(text);
         }
 
         MutableComponent result = Translations.CHAT_HEADER.component(userComponent, text);
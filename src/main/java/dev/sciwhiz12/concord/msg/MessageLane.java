@@ -0,0 +1,91 @@
+/*
+ * Concord - Copyright (c) 2020 SciWhiz12
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package dev.sciwhiz12.concord.msg;
+
+/**
+ * The lanes of the message queue in {@link Messaging}. Each lane is bounded separately and has its own overflow
+ * policy, so a flood of messages in one lane cannot delay or push out messages in the other lanes.
+ */
+public enum MessageLane {
+    /**
+     * Chat messages, in both directions.
+     */
+    CHAT("chat", 1000, 4, OverflowPolicy.DROP_OLDEST),
+    /**
+     * Lifecycle messages, such as the server or the Discord integration starting or stopping.
+     */
+    LIFECYCLE("lifecycle", 100, 2, OverflowPolicy.DROP_NEWEST),
+    /**
+     * Game event messages, such as player joins, deaths, and advancements.
+     */
+    GAME_EVENTS("game_events", 500, 1, OverflowPolicy.MERGE);
+
+    private final String configName;
+    private final int defaultCapacity;
+    private final int defaultWeight;
+    private final OverflowPolicy defaultOverflowPolicy;
+
+    MessageLane(String configName, int defaultCapacity, int defaultWeight, OverflowPolicy defaultOverflowPolicy) {
+        this.configName = configName;
+        this.defaultCapacity = defaultCapacity;
+        this.defaultWeight = defaultWeight;
+        this.defaultOverflowPolicy = defaultOverflowPolicy;
+    }
+
+    public String configName() {
+        return configName;
+    }
+
+    public int defaultCapacity() {
+        return defaultCapacity;
+    }
+
+    public int defaultWeight() {
+        return defaultWeight;
+    }
+
+    public OverflowPolicy defaultOverflowPolicy() {
+        return defaultOverflowPolicy;
+    }
+
+    /**
+     * The policy for when a message is added to a full lane.
+     */
+    public enum OverflowPolicy {
+        /**
+         * The oldest message in the lane is dropped to make room for the new message.
+         */
+        DROP_OLDEST,
+        /**
+         * The new message is dropped.
+         */
+        DROP_NEWEST,
+        /**
+         * The new message is merged into the newest message in the lane if possible, else the new message is dropped.
+         *
+         * <p>Only messages to Discord can be merged, as long as the merged message fits within Discord's message
+         * length limit.</p>
+         */
+        MERGE
+    }
+}
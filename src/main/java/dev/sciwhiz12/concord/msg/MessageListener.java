@@ -23,13 +23,12 @@
 package dev.sciwhiz12.concord.msg;
 
 import dev.sciwhiz12.concord.ChatBot;
-import dev.sciwhiz12.concord.ConcordConfig;
+import dev.sciwhiz12.concord.ConfigSnapshot;
 import net.dv8tion.jda.api.entities.Member;
-import net.dv8tion.jda.api.entities.Message;
-import net.dv8tion.jda.api.entities.MessageReference;
+import net.dv8tion.jda.api.events.message.MessageDeleteEvent;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import net.dv8tion.jda.api.events.message.MessageUpdateEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
-import net.dv8tion.jda.api.utils.MiscUtil;
 import net.neoforged.bus.api.EventPriority;
 import net.neoforged.bus.api.SubscribeEvent;
 import net.neoforged.neoforge.common.NeoForge;
@@ -51,21 +50,29 @@ public class MessageListener extends ListenerAdapter {
     public void onMessageReceived(MessageReceivedEvent event) {
         if (!event.isFromGuild()) return;
 
+        final ConfigSnapshot config = bot.getConfig();
+        if (event.getGuild().getIdLong() != config.guildId() || event.getChannel().getIdLong() != config.chatChannelId()) return;
+
+        // Remember all messages in the channel (including from bots and webhooks), as replies may reference them
+        bot.getRecentMessages().remember(event.getMessage());
+
         if (event.getAuthor().getIdLong() == bot.getDiscord().getSelfUser().getIdLong()) return;
         if (event.isWebhookMessage() || event.getAuthor().isBot()) return; // TODO: maybe make this a config option
 
-        if (event.getGuild().getIdLong() == MiscUtil.parseSnowflake(ConcordConfig.GUILD_ID.get()) &&
-                event.getChannel().getIdLong() == MiscUtil.parseSnowflake(ConcordConfig.CHAT_CHANNEL_ID.get())) {
+        // Currently, only events with non-null members ever get here
+        final Member member = Objects.requireNonNull(event.getMember());
+        bot.getChatMembers().markActive(member);
+        bot.messaging().sendToMinecraft(member, event.getMessage());
+    }
 
-            // Currently, only events with non-null members ever get here
-            final Member member = Objects.requireNonNull(event.getMember());
-            final Message message = event.getMessage();
-            final MessageReference reference = message.getMessageReference();
-            if (reference != null) {
-                reference.resolve().queue();
-            }
-            bot.messaging().sendToMinecraft(member, message);
-        }
+    @Override
+    public void onMessageUpdate(MessageUpdateEvent event) {
+        bot.getRecentMessages().update(event.getMessage());
+    }
+
+    @Override
+    public void onMessageDelete(MessageDeleteEvent event) {
+        bot.getRecentMessages().forget(event.getChannel().getIdLong(), event.getMessageIdLong());
     }
 
     @SubscribeEvent
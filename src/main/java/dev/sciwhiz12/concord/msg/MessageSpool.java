@@ -0,0 +1,400 @@
+/*
+ * Concord - Copyright (c) 2020 SciWhiz12
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package dev.sciwhiz12.concord.msg;
+
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static dev.sciwhiz12.concord.Concord.LOGGER;
+
+/**
+ * Write-ahead spool for messages to Discord. Messages are appended to the spool before they are dispatched, and
+ * acknowledged once Discord confirms the post. Messages which failed to be posted (such as during a Discord outage) are
+ * replayed in order after reconnecting to Discord, and messages which were not acknowledged before the server stopped
+ * are replayed after the server starts again.
+ *
+ * <p>The spool is a directory of fixed-size segment files. Only the segment being written to is memory-mapped; once it
+ * is full, a new segment is created. Segments are deleted once all messages in them are acknowledged, or once the total
+ * size of the segments exceeds the configured maximum (dropping the oldest segment and its unacknowledged messages).</p>
+ *
+ * <p>Messages which Discord rejects (such as for missing permissions) are acknowledged instead of being replayed, as
+ * sending them again would fail the same way. Messages which keep failing transiently while Discord is otherwise
+ * reachable are given up after {@value #MAX_REPLAYS} replays.</p>
+ *
+ * <p>Message IDs start from the current time in microseconds when the spool is opened (or after the highest recovered
+ * ID, if that is higher), so IDs are not reused across restarts even once every segment has been deleted.</p>
+ *
+ * <p>Each record in a segment is laid out as follows, with the length written last so partially written records are
+ * never read back:</p>
+ * <pre>
+ * int  length (of the rest of the record)
+ * byte type ({@value #ENTRY} for a message, {@value #ACK} for an acknowledgement)
+ * long id
+ * byte category ordinal, followed by the UTF-8 encoded message (for messages only)
+ * </pre>
+ */
+final class MessageSpool {
+    private static final Marker SPOOL = MarkerFactory.getMarker("SPOOL");
+    static final int SEGMENT_SIZE = 1024 * 1024;
+    private static final byte ENTRY = 1;
+    private static final byte ACK = 2;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".spool";
+    static final int MAX_REPLAYS = 5;
+
+    private final Path directory;
+    private final long maxSize;
+    // Pending (unacknowledged) messages, in order of their IDs
+    private final TreeMap<Long, Pending> pending = new TreeMap<>();
+    // Segment index to the amount of pending messages in the segment
+    private final TreeMap<Long, Integer> segments = new TreeMap<>();
+    private final Set<Path> pendingDeletes = new HashSet<>();
+    private long nextId = 0;
+    private long currentSegment = -1;
+    @Nullable
+    private MappedByteBuffer buffer;
+    private boolean dirty = false;
+
+    private MessageSpool(Path directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = Math.max(maxSize, 2L * SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens the spool in the given directory, recovering all unacknowledged messages from its existing segments. The
+     * recovered messages are marked as failed, to be returned by the next call to {@link #takeFailed()}.
+     */
+    static MessageSpool open(Path directory, long maxSize) throws IOException {
+        Files.createDirectories(directory);
+        final MessageSpool spool = new MessageSpool(directory, maxSize);
+        spool.recover();
+        // The IDs are also used as nonces for the posts, so they must not be reused from before the last restart
+        spool.nextId = Math.max(spool.nextId, TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis()));
+        spool.rotate();
+        return spool;
+    }
+
+    private void recover() throws IOException {
+        final List<Long> indexes = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .forEach(name -> {
+                        try {
+                            indexes.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                                    name.length() - SEGMENT_SUFFIX.length()), 16));
+                        } catch (NumberFormatException e) {
+                            LOGGER.warn(SPOOL, "Ignoring unknown file in spool directory: {}", name);
+                        }
+                    });
+        }
+        indexes.sort(null);
+
+        final Set<Long> acked = new HashSet<>();
+        for (long index : indexes) {
+            segments.put(index, 0);
+            currentSegment = index;
+            final ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(segmentPath(index)));
+            while (data.remaining() >= 4) {
+                final int length = data.getInt();
+                if (length <= 0 || length > data.remaining()) break; // End of the written records
+                if (!isValidRecord(data, length)) {
+                    // A torn or corrupted record, after which the records in the segment cannot be trusted
+                    LOGGER.warn(SPOOL, "Stopped recovering spool segment {} at a corrupted record", index);
+                    break;
+                }
+                final byte type = data.get();
+                final long id = data.getLong();
+                nextId = Math.max(nextId, id + 1);
+                if (type == ENTRY) {
+                    final MessageCategory category = MessageCategory.values()[data.get()];
+                    final byte[] text = new byte[length - 1 - 8 - 1];
+                    data.get(text);
+                    pending.put(id, new Pending(id, index, new String(text, StandardCharsets.UTF_8), category));
+                    segments.merge(index, 1, Integer::sum);
+                } else if (type == ACK) {
+                    acked.add(id);
+                } else {
+                    data.position(data.position() + length - 1 - 8);
+                }
+            }
+        }
+        acked.forEach(this::acknowledge);
+        pending.values().forEach(p -> p.failed = true);
+        deleteAckedSegments();
+
+        if (!pending.isEmpty()) {
+            LOGGER.info(SPOOL, "Recovered {} unsent message(s) from the spool", pending.size());
+        }
+    }
+
+    // Checks the fixed-size part of the record starting at the position of the buffer, which has the given length
+    private static boolean isValidRecord(ByteBuffer data, int length) {
+        if (length < 1 + 8) return false;
+        if (data.get(data.position()) != ENTRY) return true;
+        if (length < 1 + 8 + 1) return false;
+        final int ordinal = data.get(data.position() + 1 + 8);
+        return ordinal >= 0 && ordinal < MessageCategory.values().length;
+    }
+
+    /**
+     * Appends a message to the spool.
+     *
+     * @return the ID of the message in the spool, to be passed to {@link #complete(long, Throwable)} once the message is
+     * sent (or has failed to send)
+     */
+    synchronized long append(String message, MessageCategory category) {
+        final long id = nextId++;
+        final byte[] text = message.getBytes(StandardCharsets.UTF_8);
+        if (writeRecord(ENTRY, id, category, text)) {
+            pending.put(id, new Pending(id, currentSegment, message, category));
+            segments.merge(currentSegment, 1, Integer::sum);
+        }
+        return id;
+    }
+
+    /**
+     * Appends a message to the spool which is already marked as failed, to be returned by the next call to
+     * {@link #takeFailed()}. This is used for messages which are not sent right away.
+     */
+    synchronized void appendFailed(String message, MessageCategory category) {
+        final long id = append(message, category);
+        final @Nullable Pending entry = pending.get(id);
+        if (entry != null) {
+            entry.failed = true;
+        }
+    }
+
+    /**
+     * Completes a spooled message. A message which was sent, dropped on purpose, or rejected by Discord is
+     * acknowledged, while a transient failure marks the message as failed, to be replayed later.
+     *
+     * @param id        the ID of the message in the spool
+     * @param throwable the exception if sending the message failed, or {@code null} if it was sent
+     * @param outage    whether Discord is unreachable, in which case a transient failure does not count towards the
+     *                  maximum amount of replays of the message
+     */
+    synchronized void complete(long id, @Nullable Throwable throwable, boolean outage) {
+        final @Nullable Pending entry = pending.get(id);
+        if (entry == null) return;
+        if (throwable != null && !(throwable instanceof RejectedExecutionException)) {
+            if (!CircuitBreaker.isTransient(throwable)) {
+                LOGGER.debug(SPOOL, "Message {} was rejected by Discord, and will not be replayed", id, throwable);
+            } else if (outage || ++entry.replays < MAX_REPLAYS) {
+                entry.failed = true;
+                return;
+            } else {
+                LOGGER.warn(SPOOL, "Message {} failed to send {} times, and will not be replayed", id, entry.replays);
+            }
+        }
+        writeRecord(ACK, id, null, null);
+        acknowledge(id);
+        deleteAckedSegments();
+    }
+
+    /**
+     * Records that the messages with the given IDs are posted together, so they are replayed together if the post
+     * fails.
+     *
+     * @param ids the IDs of the messages in the post, which is kept by the messages (and must not be modified)
+     */
+    synchronized void recordPost(long[] ids) {
+        for (long id : ids) {
+            final @Nullable Pending entry = pending.get(id);
+            if (entry != null) {
+                entry.post = ids;
+            }
+        }
+    }
+
+    /**
+     * {@return all failed messages in order, marking them as no longer failed} The messages are to be sent again, and
+     * completed with {@link #complete(long, Throwable)} as usual.
+     */
+    synchronized List<Pending> takeFailed() {
+        final List<Pending> failed = new ArrayList<>();
+        for (Pending entry : pending.values()) {
+            if (entry.failed) {
+                entry.failed = false;
+                failed.add(entry);
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Forces the written records to the storage device, if any were written since the last flush.
+     */
+    synchronized void flush() {
+        if (dirty && buffer != null) {
+            buffer.force();
+            dirty = false;
+        }
+    }
+
+    synchronized void close() {
+        flush();
+        buffer = null;
+        if (!pending.isEmpty()) {
+            LOGGER.info(SPOOL, "{} unsent message(s) left in the spool, to be sent on next startup", pending.size());
+        }
+    }
+
+    private void acknowledge(long id) {
+        final @Nullable Pending entry = pending.remove(id);
+        if (entry != null) {
+            segments.computeIfPresent(entry.segment, (k, count) -> count - 1);
+        }
+    }
+
+    private boolean writeRecord(byte type, long id, @Nullable MessageCategory category, @Nullable byte[] text) {
+        final int length = 1 + 8 + (text != null ? 1 + text.length : 0);
+        if (4 + length > SEGMENT_SIZE) {
+            LOGGER.warn(SPOOL, "Message is too large to be spooled, and will not be recovered if it fails to send");
+            return false;
+        }
+        try {
+            if (buffer == null || buffer.remaining() < 4 + length) {
+                rotate();
+            }
+        } catch (IOException e) {
+            LOGGER.error(SPOOL, "Failed to create new spool segment", e);
+            return false;
+        }
+
+        final MappedByteBuffer buf = buffer;
+        final int start = buf.position();
+        buf.position(start + 4);
+        buf.put(type);
+        buf.putLong(id);
+        if (text != null) {
+            buf.put((byte) category.ordinal());
+            buf.put(text);
+        }
+        buf.putInt(start, length);
+        dirty = true;
+        return true;
+    }
+
+    private void rotate() throws IOException {
+        flush();
+        currentSegment++;
+        try (FileChannel channel = FileChannel.open(segmentPath(currentSegment),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        }
+        segments.put(currentSegment, 0);
+        deleteAckedSegments();
+        enforceMaxSize();
+    }
+
+    private void enforceMaxSize() {
+        while ((long) segments.size() * SEGMENT_SIZE > maxSize && segments.size() > 1) {
+            final long oldest = segments.firstKey();
+            int dropped = 0;
+            for (Iterator<Pending> iterator = pending.values().iterator(); iterator.hasNext(); ) {
+                if (iterator.next().segment == oldest) {
+                    iterator.remove();
+                    dropped++;
+                }
+            }
+            LOGGER.warn(SPOOL, "Spool is over its maximum size; dropped oldest segment with {} unsent message(s)", dropped);
+            segments.remove(oldest);
+            delete(segmentPath(oldest));
+        }
+    }
+
+    private void deleteAckedSegments() {
+        for (Iterator<Map.Entry<Long, Integer>> iterator = segments.entrySet().iterator(); iterator.hasNext(); ) {
+            final Map.Entry<Long, Integer> segment = iterator.next();
+            if (segment.getKey() != currentSegment && segment.getValue() <= 0) {
+                iterator.remove();
+                delete(segmentPath(segment.getKey()));
+            }
+        }
+        // Retry deleting segments which could not be deleted before
+        pendingDeletes.removeIf(path -> {
+            try {
+                Files.deleteIfExists(path);
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        });
+    }
+
+    private void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            // On some platforms, files cannot be deleted while they are still mapped
+            LOGGER.debug(SPOOL, "Failed to delete spool segment {}, will retry later", path, e);
+            pendingDeletes.add(path);
+        }
+    }
+
+    private Path segmentPath(long index) {
+        return directory.resolve(SEGMENT_PREFIX + "%016x".formatted(index) + SEGMENT_SUFFIX);
+    }
+
+    static final class Pending {
+        final long id;
+        final long segment;
+        final String message;
+        final MessageCategory category;
+        boolean failed = false;
+        // Only counts failures while Discord is reachable
+        int replays = 0;
+        // The IDs of the messages in the last post of this message, or null if it was not posted since it was recovered
+        @Nullable
+        long[] post;
+
+        Pending(long id, long segment, String message, MessageCategory category) {
+            this.id = id;
+            this.segment = segment;
+            this.message = message;
+            this.category = category;
+        }
+    }
+}
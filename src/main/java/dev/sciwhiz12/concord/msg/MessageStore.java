@@ -0,0 +1,80 @@
+/*
+ * Concord - Copyright (c) 2020 SciWhiz12
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package dev.sciwhiz12.concord.msg;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Storage for the {@linkplain SentMessageMemory memory of chat messages sent to Discord}, keyed by the snowflake of
+ * the Discord message. Implementations must be safe for use from multiple threads.
+ */
+interface MessageStore {
+    /**
+     * The time after which a remembered message is forgotten.
+     */
+    long EXPIRY_MILLIS = TimeUnit.HOURS.toMillis(6);
+
+    /**
+     * Stores a message, replacing any message already stored for the same snowflake.
+     */
+    void put(long snowflake, Entry entry);
+
+    /**
+     * {@return the message stored for the given snowflake, or {@code null} if there is none or it has expired}
+     */
+    @Nullable
+    Entry get(long snowflake);
+
+    /**
+     * {@return the number of stored messages}
+     */
+    int size();
+
+    /**
+     * {@return the approximate number of bytes used by the store}
+     */
+    long estimateFootprint();
+
+    default void close() {
+    }
+
+    /**
+     * A stored message.
+     *
+     * @param playerMost   the most significant bits of the UUID of the player who sent the message
+     * @param playerLeast  the least significant bits of the UUID of the player who sent the message
+     * @param playerName   the name of the player who sent the message
+     * @param message      the message component, encoded as bytes
+     * @param rememberedAt the time (in milliseconds since the epoch) when the message was first stored
+     */
+    record Entry(long playerMost, long playerLeast, String playerName, byte[] message, long rememberedAt) {
+        Entry withMessage(byte[] message) {
+            return new Entry(playerMost, playerLeast, playerName, message, rememberedAt);
+        }
+
+        boolean isExpired(long now) {
+            return now - rememberedAt > EXPIRY_MILLIS;
+        }
+    }
+}
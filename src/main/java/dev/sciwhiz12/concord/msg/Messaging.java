@@ -22,14 +22,18 @@
 
 package dev.sciwhiz12.concord.msg;
 
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import dev.sciwhiz12.concord.ChatBot;
 import dev.sciwhiz12.concord.Concord;
 import dev.sciwhiz12.concord.ConcordConfig;
+import dev.sciwhiz12.concord.ConfigSnapshot;
 import dev.sciwhiz12.concord.features.ConcordFeatures;
 import dev.sciwhiz12.concord.features.FeatureVersion;
+import dev.sciwhiz12.concord.hub.HubServer;
 import dev.sciwhiz12.concord.util.IntelligentTranslator;
-import dev.sciwhiz12.concord.util.Translation;
-import dev.sciwhiz12.concord.util.TranslationUtil;
+import dev.sciwhiz12.concord.util.TranslationIndex;
 import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
@@ -41,16 +45,31 @@ import net.minecraft.resources.ResourceLocation;
 import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.world.entity.player.ChatVisiblity;
+import net.neoforged.fml.loading.FMLPaths;
 import org.apache.maven.artifact.versioning.ArtifactVersion;
 import org.apache.maven.artifact.versioning.DefaultArtifactVersion;
 import org.jetbrains.annotations.ApiStatus;
 
 import javax.annotation.Nullable;
-import java.util.EnumSet;
-import java.util.Queue;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.StringJoiner;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 import static dev.sciwhiz12.concord.Concord.LOGGER;
@@ -59,135 +78,496 @@ import static dev.sciwhiz12.concord.Concord.MODID;
 public class Messaging {
     public static final ResourceLocation ICONS_FONT = ResourceLocation.fromNamespaceAndPath(MODID, "icons");
     public static final TextColor CROWN_COLOR = TextColor.fromRgb(0xfaa61a);
+    private static final long CONFIG_REFRESH_INTERVAL = TimeUnit.SECONDS.toNanos(5);
 
     private final ChatBot bot;
-    // Using concurrent queues because messages may added by different threads
-    private final Queue<MessageEntry> messageQueue = new ConcurrentLinkedQueue<>();
+    // Messages may be added by different threads
+    private final LanedMessageQueue discordQueue = new LanedMessageQueue();
+    private final LanedMessageQueue minecraftQueue = new LanedMessageQueue();
+    private final DiscordDispatcher dispatcher;
+    private final ExecutorService renderPool;
+    // Only accessed by the server thread
+    private final Deque<PendingDelivery> pendingDeliveries = new ArrayDeque<>();
+    private final PacketBroadcaster broadcaster;
+    @Nullable
+    private final MessageSpool spool;
+    // Only accessed by the dispatcher thread (or the shutting down thread, after the dispatcher is stopped)
+    private final List<DiscordBound> pendingBatch = new ArrayList<>();
+    // Only accessed by the dispatcher thread (or the shutting down thread, after the dispatcher is stopped)
+    private long lastConfigRefresh = System.nanoTime() - CONFIG_REFRESH_INTERVAL;
     private volatile boolean processMessages = false;
 
     public Messaging(ChatBot bot) {
         this.bot = bot;
+        this.broadcaster = new PacketBroadcaster(bot.getServer());
+        this.spool = openSpool();
+        this.dispatcher = new DiscordDispatcher(this);
+        this.dispatcher.start();
+        this.renderPool = Executors.newFixedThreadPool(ConcordConfig.RENDER_THREADS.get(),
+                new ThreadFactoryBuilder().setNameFormat("Concord Renderer #%d").setDaemon(true).build());
+        // Queue the messages left unsent from before the server was stopped
+        this.replaySpool();
+    }
+
+    @Nullable
+    private static MessageSpool openSpool() {
+        if (!ConcordConfig.SPOOL_ENABLED.get()) return null;
+        try {
+            return MessageSpool.open(FMLPaths.GAMEDIR.get().resolve(MODID).resolve("spool"),
+                    ConcordConfig.SPOOL_MAX_SIZE.get() * 1024L * 1024L);
+        } catch (IOException e) {
+            LOGGER.error("Failed to open message spool; messages to Discord will not be recovered if they fail to send", e);
+            return null;
+        }
     }
 
     public CompletableFuture<Message> sendToDiscord(String message) {
-        final DiscordBound entry = new DiscordBound(message);
-        messageQueue.add(entry);
-        return entry.future;
+        return sendToDiscord(message, MessageCategory.CHAT);
     }
 
     public CompletableFuture<Message> sendToDiscord(Component message) {
         return sendToDiscord(message.getString());
     }
 
+    /**
+     * Sends a message to the channel configured for the given category of messages.
+     *
+     * @param message  the message
+     * @param category the category of the message, which determines its channel and message lane
+     * @return a future which is completed with the sent message
+     */
+    public CompletableFuture<Message> sendToDiscord(String message, MessageCategory category) {
+        final CircuitBreaker circuitBreaker = bot.getOutboundScheduler().getCircuitBreaker();
+        if (circuitBreaker.isOpen()) {
+            // Keep the message in the spool (if enabled) to be sent once the breaker closes, without queueing it
+            if (spool != null) {
+                spool.appendFailed(message, category);
+            }
+            return circuitBreaker.shortCircuit();
+        }
+
+        // Write the message ahead to the spool, so it can be sent again if sending it fails
+        final long[] spoolIds = spool != null ? new long[]{spool.append(message, category)} : new long[0];
+        final DiscordBound entry = new DiscordBound(message, category, spoolIds, false);
+        this.queueToDiscord(entry);
+        return entry.future;
+    }
+
+    private void queueToDiscord(DiscordBound entry) {
+        if (spool != null && entry.spoolIds.length > 0) {
+            entry.future.whenComplete((message, throwable) -> {
+                for (long spoolId : entry.spoolIds) {
+                    this.completeSpooled(spoolId, throwable);
+                }
+            });
+        }
+        discordQueue.offer(entry.category.lane(), entry);
+        dispatcher.wake();
+    }
+
+    /**
+     * Appends a message which is sent outside of the message queues (such as through a webhook) to the spool. If the
+     * message fails to send, or the server stops before it is sent, it is replayed through the bot.
+     *
+     * @param message  the message, as it would be sent through the bot
+     * @param category the category of the message
+     * @return the ID of the message in the spool, or {@code -1} if the spool is disabled
+     * @see #completeSpooled(long, Throwable)
+     */
+    @ApiStatus.Internal
+    public long spool(String message, MessageCategory category) {
+        return spool != null ? spool.append(message, category) : -1;
+    }
+
+    /**
+     * Completes a message appended to the spool with {@link #spool(String, MessageCategory)}.
+     *
+     * @param spoolId   the ID of the message in the spool, or {@code -1} if it was not spooled
+     * @param throwable the exception if sending the message failed, or {@code null} if it was sent (or is being sent
+     *                  again as part of another message)
+     */
+    @ApiStatus.Internal
+    public void completeSpooled(long spoolId, @Nullable Throwable throwable) {
+        if (spool == null || spoolId < 0) return;
+        final CircuitBreaker circuitBreaker = bot.getOutboundScheduler().getCircuitBreaker();
+        spool.complete(spoolId, throwable, circuitBreaker.getState() != CircuitBreaker.State.CLOSED);
+    }
+
+    /**
+     * Queues all spooled messages which failed to send, in the order they were originally queued. This is called after
+     * reconnecting to Discord, after the circuit breaker closes, and to probe Discord while the breaker is open.
+     */
+    @ApiStatus.Internal
+    public void replaySpool() {
+        if (spool == null) return;
+        final List<MessageSpool.Pending> failed = spool.takeFailed();
+        if (failed.isEmpty()) return;
+        LOGGER.info("Resending {} message(s) which failed to send to Discord", failed.size());
+        // Messages which were posted together are posted together again, so the post has the same nonce as before; the
+        // messages of a post share the same array of IDs, which is compared by identity
+        final Map<Object, List<MessageSpool.Pending>> posts = new LinkedHashMap<>();
+        for (MessageSpool.Pending entry : failed) {
+            posts.computeIfAbsent(entry.post != null ? entry.post : entry, k -> new ArrayList<>()).add(entry);
+        }
+        for (List<MessageSpool.Pending> post : posts.values()) {
+            final StringJoiner joiner = new StringJoiner("\n");
+            final long[] spoolIds = new long[post.size()];
+            for (int i = 0; i < post.size(); i++) {
+                joiner.add(post.get(i).message);
+                spoolIds[i] = post.get(i).id;
+            }
+            this.queueToDiscord(new DiscordBound(joiner.toString(), post.get(0).category, spoolIds, true));
+        }
+    }
+
+    @ApiStatus.Internal
+    public void closeSpool() {
+        if (spool != null) {
+            spool.close();
+        }
+    }
+
+    public CompletableFuture<Message> sendToDiscord(Component message, MessageCategory category) {
+        return sendToDiscord(message.getString(), category);
+    }
+
     @SuppressWarnings("UnusedReturnValue")
     public CompletableFuture<Void> sendToMinecraft(Member sender, Message message) {
-        final MinecraftBound entry = new MinecraftBound(sender, message);
-        messageQueue.add(entry);
+        final MinecraftBound entry = new MinecraftBound(sender, message,
+                bot.getRecentMessages().resolveReference(message), new CompletableFuture<>());
+        minecraftQueue.offer(MessageLane.CHAT, entry);
         return entry.future;
     }
 
+    /**
+     * {@return the amount of messages to Discord queued in the given lane}
+     *
+     * @param lane the message lane
+     */
+    public int getQueueDepth(MessageLane lane) {
+        return discordQueue.getDepth(lane);
+    }
+
+    /**
+     * {@return the amount of messages (in both directions) dropped from the given lane because it was full}
+     *
+     * @param lane the message lane
+     */
+    public long getDroppedCount(MessageLane lane) {
+        return discordQueue.getDroppedCount(lane) + minecraftQueue.getDroppedCount(lane);
+    }
+
+    public long getMergedCount(MessageLane lane) {
+        return discordQueue.getMergedCount(lane);
+    }
+
     @ApiStatus.Internal
     public void allowProcessingMessages(boolean processMessages) {
         this.processMessages = processMessages;
+        dispatcher.wake();
     }
 
+    /**
+     * Processes the queued messages to Minecraft. This is called on the server thread every tick. Messages to Discord
+     * are processed on their own thread, as soon as they are queued.
+     *
+     * <p>Messages to Minecraft are rendered on a worker pool, and only the delivery of the rendered messages to the
+     * players happens on the server thread, in the order the messages were queued, up to the configured time budget
+     * per tick.</p>
+     */
     public void processMessages() {
-        this.processMessages(false);
+        if (!processMessages) return;
+        this.processMinecraftBound(false);
     }
 
+    /**
+     * Stops the dispatcher thread, and processes all pending messages in both directions on the calling thread.
+     */
     @ApiStatus.Internal
-    public void processMessages(boolean bypass) {
-        if (!processMessages && !bypass) return;
+    public void shutdown() {
+        this.processMessages = false;
+        dispatcher.stop();
+        this.processMinecraftBound(true);
+        renderPool.shutdown();
+        this.dispatchToDiscord(true);
+    }
 
-        // TODO: rate-limiting
-        MessageEntry entry;
-        while ((entry = messageQueue.poll()) != null) {
+    private void processMinecraftBound(boolean bypass) {
+        // Start rendering the newly queued messages, using a snapshot of the players taken on the server thread
+        final MinecraftServer server = bot.getServer();
+        final PlayerSnapshot[] snapshot = new PlayerSnapshot[1];
+        minecraftQueue.drain(entry -> {
             if (entry instanceof MinecraftBound d2m) {
-                this.sendToAllPlayers(d2m.member, d2m.message);
-                d2m.future.complete(null);
-            } else if (entry instanceof DiscordBound m2d) {
-                final CompletableFuture<Message> future = m2d.future;
-                this.sendToChannel(m2d.message).whenComplete((message, throwable) -> {
-                    if (message != null) {
-                        future.complete(message);
-                    } else {
-                        future.completeExceptionally(throwable);
-                    }
-                });
+                if (snapshot[0] == null) {
+                    snapshot[0] = PlayerSnapshot.capture(server);
+                }
+                final PlayerSnapshot players = snapshot[0];
+                // Rendering waits for the referenced message (if any), which may need to be requested from Discord
+                pendingDeliveries.add(new PendingDelivery(d2m,
+                        d2m.referenced.thenApplyAsync(referenced -> this.render(d2m, referenced, players), renderPool)));
+            }
+        });
+
+        // Deliver rendered messages in order, stopping at the first message which is still being rendered
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ConcordConfig.DELIVERY_BUDGET.get());
+        @Nullable Map<MessageContext, List<ServerPlayer>> recipients = null;
+        PendingDelivery delivery;
+        while ((delivery = pendingDeliveries.peek()) != null) {
+            if (!bypass && (!delivery.rendered.isDone() || System.nanoTime() - deadline >= 0)) break;
+            pendingDeliveries.poll();
+            if (recipients == null) {
+                // The recipients are the same for all messages delivered in this tick
+                recipients = collectRecipients(server);
+            }
+            this.deliver(delivery, recipients);
+        }
+    }
+
+    /**
+     * Sends all queued messages to Discord, batching them if configured.
+     *
+     * @param bypass whether to bypass the processing flag and the batching window
+     * @return the time in nanoseconds until the pending batch must be sent, or {@code 0} if there is no pending batch
+     */
+    long dispatchToDiscord(boolean bypass) {
+        if (!processMessages && !bypass) return 0;
+
+        final long batchWindow = TimeUnit.MILLISECONDS.toNanos(ConcordConfig.BATCH_WINDOW.get());
+        discordQueue.drain(entry -> {
+            if (entry instanceof DiscordBound m2d) {
+                if (batchWindow > 0 && !m2d.replay) {
+                    pendingBatch.add(m2d);
+                } else {
+                    this.sendToChannel(List.of(m2d));
+                }
+            }
+        });
+
+        if (spool != null) {
+            spool.flush();
+        }
+
+        if (pendingBatch.isEmpty()) return 0;
+
+        // Flush the batch once the oldest message in it has waited for the whole window (or when forced to)
+        final long remaining = batchWindow - (System.nanoTime() - pendingBatch.get(0).queuedTime);
+        if (bypass || remaining <= 0) {
+            this.flushBatch();
+            return 0;
+        }
+        return remaining;
+    }
+
+    private void flushBatch() {
+        // Messages are only batched with messages of the same category, as each category may have its own channel
+        final Map<MessageCategory, List<DiscordBound>> byCategory = new EnumMap<>(MessageCategory.class);
+        for (DiscordBound entry : pendingBatch) {
+            byCategory.computeIfAbsent(entry.category, k -> new ArrayList<>()).add(entry);
+        }
+        byCategory.values().forEach(this::flushBatch);
+        pendingBatch.clear();
+    }
+
+    private void flushBatch(List<DiscordBound> entries) {
+        final List<DiscordBound> batch = new ArrayList<>();
+        int batchLength = 0;
+        for (DiscordBound entry : entries) {
+            // Account for the newline joining the entry to the previous ones
+            if (!batch.isEmpty() && batchLength + 1 + entry.message.length() > Message.MAX_CONTENT_LENGTH) {
+                this.sendToChannel(List.copyOf(batch));
+                batch.clear();
+            }
+            batchLength = batch.isEmpty() ? entry.message.length() : batchLength + 1 + entry.message.length();
+            batch.add(entry);
+        }
+        if (!batch.isEmpty()) {
+            this.sendToChannel(List.copyOf(batch));
+        }
+    }
+
+    private void sendToChannel(List<DiscordBound> entries) {
+        final String text;
+        if (entries.size() == 1) {
+            text = entries.get(0).message;
+        } else {
+            final StringJoiner joiner = new StringJoiner("\n");
+            entries.forEach(e -> joiner.add(e.message));
+            text = joiner.toString();
+        }
+
+        // The spool IDs of all messages in the post identify it, so Discord recognizes a replay of the same post
+        final long[] spoolIds = entries.stream().flatMapToLong(e -> Arrays.stream(e.spoolIds)).sorted().toArray();
+        final @Nullable String nonce;
+        if (spool != null && spoolIds.length > 0) {
+            spool.recordPost(spoolIds);
+            nonce = nonce(spoolIds);
+        } else {
+            nonce = null;
+        }
+
+        // Every entry in the batch is completed with the same sent message
+        this.sendToChannel(entries.get(0).category, text, nonce).whenComplete((message, throwable) -> {
+            if (message != null) {
+                bot.getRecentMessages().remember(message);
+            }
+            for (DiscordBound entry : entries) {
+                if (message != null) {
+                    entry.future.complete(message);
+                } else {
+                    entry.future.completeExceptionally(throwable);
+                }
             }
+        });
+    }
+
+    /**
+     * {@return the nonce of a post holding the spooled messages with the given IDs}
+     *
+     * <p>JDA sends the nonce with {@code enforce_nonce}, so Discord returns the existing message instead of creating a
+     * new one if the bot posted a message with the same nonce before. Discord only checks the posts of the past few
+     * minutes, so a post replayed after a longer outage (or after a restart) may still be posted twice.</p>
+     *
+     * @param spoolIds the sorted spool IDs
+     */
+    private static String nonce(long[] spoolIds) {
+        if (spoolIds.length == 1) return Long.toString(spoolIds[0]);
+        final Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (long spoolId : spoolIds) {
+            hasher.putLong(spoolId);
         }
+        // Nonces are limited to 25 characters
+        return Long.toUnsignedString(hasher.hash().asLong(), 36);
     }
 
-    private void sendToAllPlayers(Member member, Message message) {
+    // Called on a render pool thread
+    private IntelligentTranslator<MessageContext> render(MinecraftBound entry, @Nullable Message referenced,
+                                                         PlayerSnapshot players) {
         final ConcordConfig.CrownVisibility crownVisibility = ConcordConfig.HIDE_CROWN.get();
 
         final IntelligentTranslator<MessageContext> translator = versionCheckingTranslator(
-                ctx -> MessageFormatter.createMessage(ctx.useIcons, crownVisibility, member, bot.getSentMessageMemory(), bot.getServer().getPlayerList(), message));
+                ctx -> MessageFormatter.createMessage(ctx.useIcons, crownVisibility, entry.member, bot.getMemberComponents(), bot.getSentMessageMemory(), players.displayNames(), entry.message, referenced));
+
+        // Resolve all contexts ahead of time, so delivering the message is only a cache lookup
+        translator.resolve(CONSOLE_CONTEXT);
+        players.contexts().forEach(translator::resolve);
+        final @Nullable HubServer hub = bot.getHub();
+        if (hub != null && hub.hasSpokes()) {
+            translator.resolve(SPOKE_CONTEXT);
+        }
+        return translator;
+    }
 
-        final boolean lazyTranslateAll = ConcordConfig.LAZY_TRANSLATIONS.get();
-        final boolean useIconsAll = ConcordConfig.USE_CUSTOM_FONT.get();
+    private void deliver(PendingDelivery delivery, Map<MessageContext, List<ServerPlayer>> recipients) {
+        final IntelligentTranslator<MessageContext> translator;
+        try {
+            translator = delivery.rendered.join();
+        } catch (CompletionException e) {
+            LOGGER.error("Failed to render message from Discord", e.getCause());
+            delivery.entry.future.completeExceptionally(e.getCause());
+            return;
+        }
 
         final MinecraftServer server = bot.getServer();
-        server.sendSystemMessage(translator.resolve(new MessageContext(false, FeatureVersion.TRANSLATIONS.currentVersion())));
+        server.sendSystemMessage(translator.resolve(CONSOLE_CONTEXT));
 
-        for (ServerPlayer player : server.getPlayerList().getPlayers()) {
-            final ArtifactVersion translationsVersion = lazyTranslateAll
-                    ? getFeatureVersionWithDefault(player, FeatureVersion.TRANSLATIONS)
-                    : ZERO_VERSION; // Eagerly translating means use the 0.0.0 version, which is never compatible
-            final ArtifactVersion iconsVersion = getFeatureVersionWithDefault(player, FeatureVersion.ICONS);
+        // Players who joined after the snapshot was taken may need a context which was not rendered ahead of time,
+        // which is then rendered on the server thread
+        recipients.forEach((ctx, players) -> broadcaster.broadcast(translator.resolve(ctx), players));
 
-            final boolean useIcons = useIconsAll && isCompatible(FeatureVersion.ICONS.currentVersion(), iconsVersion);
-            final MessageContext ctx = new MessageContext(useIcons, translationsVersion);
+        final @Nullable HubServer hub = bot.getHub();
+        if (hub != null && hub.hasSpokes()) {
+            hub.broadcast(translator.resolve(SPOKE_CONTEXT));
+        }
+        delivery.entry.future.complete(null);
+    }
 
-            final Component sendingText = translator.resolve(ctx);
+    // Groups the players which accept chat messages by their rendering variant
+    private static Map<MessageContext, List<ServerPlayer>> collectRecipients(MinecraftServer server) {
+        final Map<MessageContext, List<ServerPlayer>> recipients = new HashMap<>();
+        for (ServerPlayer player : server.getPlayerList().getPlayers()) {
             if (player.getChatVisibility() == ChatVisiblity.FULL) { // See ServerPlayer#acceptsChatMessages()
-                player.sendSystemMessage(sendingText);
+                recipients.computeIfAbsent(MessageContext.of(player), k -> new ArrayList<>()).add(player);
             }
         }
+        return recipients;
     }
 
-    private CompletableFuture<Message> sendToChannel(CharSequence text) {
-        final TextChannel channel = bot.getDiscord().getTextChannelById(ConcordConfig.CHAT_CHANNEL_ID.get());
+    private CompletableFuture<Message> sendToChannel(MessageCategory category, CharSequence text, @Nullable String nonce) {
+        ConfigSnapshot config = bot.getConfig();
+        final long now = System.nanoTime();
+        if (config.channel(category) == null && now - lastConfigRefresh >= CONFIG_REFRESH_INTERVAL) {
+            // The snapshot may be outdated, if the channel was not yet in the cache when it was taken; the bot refreshes
+            // it on guild and channel events, so this is only a fallback, which is rate-limited as the channel stays
+            // missing for as long as the guild is unavailable
+            lastConfigRefresh = now;
+            bot.refreshConfig();
+            config = bot.getConfig();
+        }
+
+        final @Nullable TextChannel channel = config.channel(category);
+        final Set<Message.MentionType> allowedMentions = config.allowedMentions();
         if (channel != null) {
-            return channel.sendMessage(text).setAllowedMentions(getAllowedMentions()).submit();
+            // Each channel has its own queue and bucket in the scheduler, so channels are rate limited independently
+            return bot.getOutboundScheduler().submit(OutboundScheduler.channelRoute(channel.getIdLong()),
+                    () -> channel.sendMessage(text).setAllowedMentions(allowedMentions).setNonce(nonce));
+        } else if (config.channelId(category) != config.chatChannelId()
+                && !bot.getDiscord().isUnavailable(config.guildId())) {
+            LOGGER.warn("Failed to retrieve channel {} for {} messages from JDA channel cache; posting in the chat channel instead",
+                    config.channelId(category), category.configName());
+            return sendToChannel(MessageCategory.CHAT, text, nonce);
+        } else if (bot.getDiscord().isUnavailable(config.guildId())) {
+            // The guild is in an outage, so its channels are not in the cache; this is transient
+            LOGGER.debug("Guild is unavailable; failed to retrieve chat channel from JDA channel cache");
+            bot.getOutboundScheduler().recordFailure();
+            // An IOException, so the failure is considered transient and the message is replayed
+            return CompletableFuture.failedFuture(new IOException("Guild is unavailable"));
         } else {
             LOGGER.error("Failed to retrieve chat channel from JDA channel cache; was the channel deleted?");
-            Concord.disable(true);
+            // Messages to Discord are not sent from the server thread, so disable on the server thread
+            bot.getServer().execute(() -> Concord.disable(true));
             return CompletableFuture.failedFuture(new RuntimeException("Failed to retrieve chat channel from JDA channel cache"));
         }
     }
 
-    private Set<Message.MentionType> getAllowedMentions() {
-        if (ConcordConfig.ALLOW_MENTIONS.get()) {
-            final Set<Message.MentionType> allowedMentions = EnumSet.noneOf(Message.MentionType.class);
-            if (ConcordConfig.ALLOW_PUBLIC_MENTIONS.get()) {
-                allowedMentions.add(Message.MentionType.EVERYONE);
-                allowedMentions.add(Message.MentionType.HERE);
-            }
-            if (ConcordConfig.ALLOW_USER_MENTIONS.get()) {
-                allowedMentions.add(Message.MentionType.USER);
-            }
-            if (ConcordConfig.ALLOW_ROLE_MENTIONS.get()) {
-                allowedMentions.add(Message.MentionType.ROLE);
-            }
-            return allowedMentions;
-        }
-        return Set.of();
-    }
-
     sealed interface MessageEntry {
+        CompletableFuture<?> future();
     }
 
-    static record MinecraftBound(Member member, Message message,
+    // The referenced future is completed with null if the message does not reference another message
+    static record MinecraftBound(Member member, Message message, CompletableFuture<Message> referenced,
                                  CompletableFuture<Void> future) implements MessageEntry {
-        MinecraftBound(Member member, Message message) {
-            this(member, message, new CompletableFuture<>());
-        }
     }
 
-    static record DiscordBound(String message, CompletableFuture<Message> future) implements MessageEntry {
-        DiscordBound(String message) {
-            this(message, new CompletableFuture<>());
+    // The spool IDs are those of the messages in the entry, which identify its post; replayed entries are posted as
+    // they were before, so they are not batched or merged with other entries
+    static record DiscordBound(String message, MessageCategory category, CompletableFuture<Message> future,
+                               long queuedTime, long[] spoolIds, boolean replay) implements MessageEntry {
+        DiscordBound(String message, MessageCategory category, long[] spoolIds, boolean replay) {
+            this(message, category, new CompletableFuture<>(), System.nanoTime(), spoolIds, replay);
+        }
+
+        // Returns null if the messages are of different categories, if either is a replay, or if the merged message
+        // would be too long
+        @Nullable
+        DiscordBound mergeWith(DiscordBound other) {
+            if (category != other.category || replay || other.replay) return null;
+            if (message.length() + 1 + other.message.length() > Message.MAX_CONTENT_LENGTH) return null;
+
+            // The spooled messages are completed through the merged entries, which are completed through this one
+            final long[] spoolIds = Arrays.copyOf(this.spoolIds, this.spoolIds.length + other.spoolIds.length);
+            System.arraycopy(other.spoolIds, 0, spoolIds, this.spoolIds.length, other.spoolIds.length);
+            final DiscordBound merged = new DiscordBound(message + '\n' + other.message, category,
+                    new CompletableFuture<>(), queuedTime, spoolIds, false);
+            merged.future.whenComplete((sent, throwable) -> {
+                if (sent != null) {
+                    this.future.complete(sent);
+                    other.future.complete(sent);
+                } else {
+                    this.future.completeExceptionally(throwable);
+                    other.future.completeExceptionally(throwable);
+                }
+            });
+            return merged;
         }
     }
 
@@ -206,21 +586,59 @@ public class Messaging {
 
     private IntelligentTranslator<MessageContext> versionCheckingTranslator(
             final Function<MessageContext, MutableComponent> componentCreator) {
+        final TranslationIndex index = TranslationIndex.get();
         return new IntelligentTranslator<>(componentCreator, ((originalKey, remoteContext) -> {
-            @Nullable final Translation translation = TranslationUtil.findTranslation(originalKey);
-            if (translation == null) return originalKey; // Non-Concord translation, so skip
+            final int id = index.id(originalKey);
+            if (id < 0) return originalKey; // Non-Concord translation, so skip
 
-            final ArtifactVersion translationVersion = translation.lastModifiedVersion();
-            if (isCompatible(remoteContext.version, translationVersion)) {
+            if (remoteContext.lazyTable[id]) {
                 // Major and minor match up, so do not eagerly translate
                 return originalKey;
             }
 
             // Major and/or minor do not match up, so eagerly translate
-            return Language.getInstance().getOrDefault(translation.key());
+            return Language.getInstance().getOrDefault(originalKey);
         }));
     }
 
-    private record MessageContext(boolean useIcons, ArtifactVersion version) {
+    private static final MessageContext CONSOLE_CONTEXT = new MessageContext(false, FeatureVersion.TRANSLATIONS.currentVersion());
+    // The clients on the spokes are not known, so messages for spokes are eagerly translated and do not use icons
+    private static final MessageContext SPOKE_CONTEXT = new MessageContext(false, ZERO_VERSION);
+
+    // The lazy-translation table is the one cached by the translation index for the version, so contexts with the same
+    // major and minor version share the same table, and comparing the tables by identity is consistent with equality
+    private record MessageContext(boolean useIcons, ArtifactVersion version, boolean[] lazyTable) {
+        MessageContext(boolean useIcons, ArtifactVersion version) {
+            this(useIcons, version, TranslationIndex.get().lazyTable(version));
+        }
+
+        static MessageContext of(ServerPlayer player) {
+            final ArtifactVersion translationsVersion = ConcordConfig.LAZY_TRANSLATIONS.get()
+                    ? getFeatureVersionWithDefault(player, FeatureVersion.TRANSLATIONS)
+                    : ZERO_VERSION; // Eagerly translating means use the 0.0.0 version, which is never compatible
+            final ArtifactVersion iconsVersion = getFeatureVersionWithDefault(player, FeatureVersion.ICONS);
+
+            final boolean useIcons = ConcordConfig.USE_CUSTOM_FONT.get()
+                    && isCompatible(FeatureVersion.ICONS.currentVersion(), iconsVersion);
+            return new MessageContext(useIcons, translationsVersion);
+        }
+    }
+
+    // Thread-safe snapshot of the player data needed for rendering messages, taken on the server thread
+    private record PlayerSnapshot(Set<MessageContext> contexts, Map<UUID, Component> displayNames) {
+        static PlayerSnapshot capture(MinecraftServer server) {
+            final Set<MessageContext> contexts = new HashSet<>();
+            final Map<UUID, Component> displayNames = new HashMap<>();
+            for (ServerPlayer player : server.getPlayerList().getPlayers()) {
+                if (player.getChatVisibility() == ChatVisiblity.FULL) {
+                    contexts.add(MessageContext.of(player));
+                }
+                displayNames.put(player.getUUID(), player.getDisplayName().copy());
+            }
+            return new PlayerSnapshot(Set.copyOf(contexts), Map.copyOf(displayNames));
+        }
+    }
+
+    private record PendingDelivery(MinecraftBound entry, CompletableFuture<IntelligentTranslator<MessageContext>> rendered) {
     }
 }
@@ -0,0 +1,436 @@
+/*
+ * Concord - Copyright (c) 2020 SciWhiz12
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package dev.sciwhiz12.concord.msg;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import dev.sciwhiz12.concord.ConcordConfig;
+import net.dv8tion.jda.api.requests.RestAction;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+import org.jetbrains.annotations.ApiStatus;
+import org.slf4j.Marker;
+import org.slf4j.MarkerFactory;
+
+import javax.annotation.Nullable;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static dev.sciwhiz12.concord.Concord.LOGGER;
+
+/**
+ * Scheduler for all outbound REST requests which post messages to Discord, shared by the bot route and the webhook
+ * route. Each Discord route (a channel or a webhook) has its own queue, in which requests are sent strictly in the
+ * order they are submitted, and its own token bucket, which is kept up to date by the rate-limit headers of the
+ * responses from Discord.
+ *
+ * <p>When the bucket for the request at the head of a queue is exhausted, the scheduler holds back the requests for
+ * that route until the bucket resets, instead of handing them to JDA to be retried on {@code 429 Too Many Requests}.
+ * Requests for other routes are not held back, so a rate-limited channel does not delay the other channels.</p>
+ *
+ * <p>Requests which fail transiently are retried at the head of their queue, up to the configured amount of attempts.
+ * The scheduler also holds back all requests while its {@link CircuitBreaker} is open or backing off.</p>
+ */
+public class OutboundScheduler {
+    private static final Marker SCHEDULER = MarkerFactory.getMarker("SCHEDULER");
+    // Discord's (undocumented) default for posting messages in a channel: 5 messages per 5 seconds
+    private static final int DEFAULT_LIMIT = 5;
+    private static final long DEFAULT_RESET_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("Concord Outbound Scheduler").setDaemon(true).build());
+    // Route to the queue of requests for the route
+    private final Map<String, Deque<Task<?>>> queues = new ConcurrentHashMap<>();
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    // Route to the amount of queued requests for the route
+    private final Map<String, AtomicInteger> queuedByRoute = new ConcurrentHashMap<>();
+    private final AtomicLong backpressureCount = new AtomicLong();
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker();
+    // Only accessed by the scheduler thread
+    private boolean drainScheduled = false;
+    // The time of the earliest pending delayed drain, if drainScheduled; only accessed by the scheduler thread
+    private long scheduledDrainTime;
+    // Only accessed by the scheduler thread
+    private boolean probeScheduled = false;
+    private volatile boolean backpressured = false;
+
+    public static String channelRoute(long channelId) {
+        return "channels/" + channelId;
+    }
+
+    public static String webhookRoute(long webhookId) {
+        return "webhooks/" + webhookId;
+    }
+
+    /**
+     * Submits a request to be executed once its route has capacity, after all previously submitted requests for the
+     * same route.
+     *
+     * @param route  the route of the request, from {@link #channelRoute(long)} or {@link #webhookRoute(long)}
+     * @param action the supplier of the request, called when the request is executed
+     * @param <T>    the type of the result of the request
+     * @return a future which is completed with the result of the request
+     */
+    public <T> CompletableFuture<T> submit(String route, Supplier<? extends RestAction<T>> action) {
+        final Task<T> task = new Task<>(route, action);
+        if (executor.isShutdown()) {
+            // Late requests (such as those while shutting down) are handed directly to JDA
+            task.execute();
+            return task.future;
+        }
+        queued(route).incrementAndGet();
+        queue(route).add(task);
+        executor.execute(this::drain);
+        return task.future;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public boolean isApplyingBackpressure() {
+        return backpressured;
+    }
+
+    public long getBackpressureCount() {
+        return backpressureCount.get();
+    }
+
+    public int getQueuedRequests() {
+        return queuedByRoute.values().stream().mapToInt(AtomicInteger::get).sum();
+    }
+
+    /**
+     * {@return the remaining capacity of the bucket for the given route} Routes which have not been used yet are
+     * assumed to have the default capacity.
+     *
+     * @param route the route
+     */
+    public int getRemainingCapacity(String route) {
+        final TokenBucket bucket = buckets.get(route);
+        return bucket != null ? bucket.remaining(System.nanoTime()) : DEFAULT_LIMIT;
+    }
+
+    /**
+     * {@return the remaining capacity of the bucket for the given route, less the requests already queued for the
+     * route} This may be negative if more requests are queued than the bucket has capacity for.
+     *
+     * @param route the route
+     */
+    public int getAvailableCapacity(String route) {
+        final AtomicInteger queued = queuedByRoute.get(route);
+        return getRemainingCapacity(route) - (queued != null ? queued.get() : 0);
+    }
+
+    private void drain() {
+        // Drains every route which is not exhausted, even while a delayed drain is pending for an exhausted route
+        // The shortest time until an exhausted route has capacity again
+        long minWaitNanos = Long.MAX_VALUE;
+        boolean idle = true;
+        for (Deque<Task<?>> queue : queues.values()) {
+            Task<?> task;
+            while ((task = queue.peek()) != null) {
+                idle = false;
+                final long now = System.nanoTime();
+                final long breakerWaitNanos = circuitBreaker.waitNanos(now);
+                if (breakerWaitNanos < 0) return; // A probe is in flight, which drains again once it completes
+                if (breakerWaitNanos > 0) {
+                    scheduleDrain(breakerWaitNanos);
+                    return;
+                }
+
+                final long waitNanos = bucket(task.route).tryAcquire(now);
+                if (waitNanos > 0) {
+                    // Only this route is held back; the other routes are drained independently
+                    if (!backpressured) {
+                        backpressured = true;
+                        backpressureCount.incrementAndGet();
+                        LOGGER.debug(SCHEDULER, "Route {} is exhausted, holding back {} queued request(s) for {} ms",
+                                task.route, queued(task.route).get(), TimeUnit.NANOSECONDS.toMillis(waitNanos));
+                    }
+                    minWaitNanos = Math.min(minWaitNanos, waitNanos);
+                    break;
+                }
+                pollTask(queue);
+                circuitBreaker.onSend();
+                task.execute();
+            }
+        }
+        if (minWaitNanos != Long.MAX_VALUE) {
+            scheduleDrain(minWaitNanos);
+        } else {
+            backpressured = false;
+        }
+        if (idle) {
+            scheduleProbe();
+        }
+    }
+
+    // With nothing queued, nothing would be sent as the probe once the backoff elapses, so ask for a probe then
+    private void scheduleProbe() {
+        if (probeScheduled || circuitBreaker.getState() != CircuitBreaker.State.OPEN) return;
+        final long waitNanos = circuitBreaker.waitNanos(System.nanoTime());
+        if (waitNanos < 0) return;
+        probeScheduled = true;
+        executor.schedule(() -> {
+            probeScheduled = false;
+            circuitBreaker.requestProbe();
+        }, waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records a transient failure which happened before a request could be submitted, such as while the guild is
+     * unavailable.
+     */
+    void recordFailure() {
+        circuitBreaker.recordFailure();
+        executeDrain();
+    }
+
+    private void scheduleDrain(long delayNanos) {
+        final long time = System.nanoTime() + delayNanos;
+        if (drainScheduled && scheduledDrainTime - time <= 0) return; // A drain is already pending by then
+        drainScheduled = true;
+        scheduledDrainTime = time;
+        executor.schedule(() -> {
+            if (scheduledDrainTime == time) {
+                drainScheduled = false;
+            }
+            drain();
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void retry(Task<?> task, Throwable throwable) {
+        if (task.attempts < ConcordConfig.MAX_SEND_ATTEMPTS.get() && !executor.isShutdown()) {
+            // Retried before all other queued requests, once the circuit breaker's backoff elapses
+            queued(task.route).incrementAndGet();
+            queue(task.route).addFirst(task);
+        } else {
+            task.future.completeExceptionally(throwable);
+        }
+    }
+
+    private void executeDrain() {
+        try {
+            executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            // Shut down concurrently, so hand the remaining requests to JDA
+            executeAll();
+        }
+    }
+
+    // Hands all queued requests to JDA, bypassing the buckets
+    private void executeAll() {
+        for (Deque<Task<?>> queue : queues.values()) {
+            Task<?> task;
+            while ((task = pollTask(queue)) != null) {
+                task.execute();
+            }
+        }
+    }
+
+    @Nullable
+    private Task<?> pollTask(Deque<Task<?>> queue) {
+        final Task<?> task = queue.poll();
+        if (task != null) {
+            queued(task.route).decrementAndGet();
+        }
+        return task;
+    }
+
+    private Deque<Task<?>> queue(String route) {
+        return queues.computeIfAbsent(route, k -> new ConcurrentLinkedDeque<>());
+    }
+
+    private AtomicInteger queued(String route) {
+        return queuedByRoute.computeIfAbsent(route, k -> new AtomicInteger());
+    }
+
+    private TokenBucket bucket(String route) {
+        return buckets.computeIfAbsent(route, k -> new TokenBucket());
+    }
+
+    @ApiStatus.Internal
+    public void shutdown() {
+        // Hand all remaining requests to JDA, which will send them (with its own rate-limiting) before shutting down
+        executor.execute(this::executeAll);
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                LOGGER.warn(SCHEDULER, "Outbound scheduler did not terminate in time; some messages may not be sent");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * {@return an OkHttp network interceptor which updates the buckets of this scheduler from the rate-limit headers of
+     * Discord's responses}
+     */
+    public Interceptor createRateLimitInterceptor() {
+        return chain -> {
+            final Response response = chain.proceed(chain.request());
+            final @Nullable String route = routeFromPath(chain.request().url().encodedPath());
+            if (route != null) {
+                updateFromHeaders(route, response);
+            }
+            return response;
+        };
+    }
+
+    private void updateFromHeaders(String route, Response response) {
+        final long now = System.nanoTime();
+        if (response.code() == 429) {
+            final double retryAfter = parseDouble(response.header("Retry-After"), 1.0);
+            LOGGER.debug(SCHEDULER, "Hit rate limit on route {}, retrying after {} seconds", route, retryAfter);
+            bucket(route).update(0, -1, now + (long) (retryAfter * 1_000_000_000L));
+            return;
+        }
+
+        final @Nullable String remaining = response.header("X-RateLimit-Remaining");
+        final @Nullable String resetAfter = response.header("X-RateLimit-Reset-After");
+        if (remaining == null || resetAfter == null) return;
+        final @Nullable String limit = response.header("X-RateLimit-Limit");
+        try {
+            bucket(route).update(Integer.parseInt(remaining), limit != null ? Integer.parseInt(limit) : -1,
+                    now + (long) (Double.parseDouble(resetAfter) * 1_000_000_000L));
+        } catch (NumberFormatException e) {
+            LOGGER.debug(SCHEDULER, "Received malformed rate-limit headers for route {}", route, e);
+        }
+    }
+
+    private static double parseDouble(@Nullable String value, double defaultValue) {
+        if (value == null) return defaultValue;
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    // Paths look like '/api/v10/channels/{id}/messages' or '/api/v10/webhooks/{id}/{token}'
+    @Nullable
+    static String routeFromPath(String path) {
+        final String[] segments = path.split("/");
+        for (int i = 0; i < segments.length - 1; i++) {
+            if (segments[i].equals("channels") || segments[i].equals("webhooks")) {
+                return segments[i] + '/' + segments[i + 1];
+            }
+        }
+        return null;
+    }
+
+    private final class Task<T> {
+        private final String route;
+        private final Supplier<? extends RestAction<T>> action;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private int attempts = 0;
+
+        Task(String route, Supplier<? extends RestAction<T>> action) {
+            this.route = route;
+            this.action = action;
+        }
+
+        void execute() {
+            attempts++;
+            try {
+                action.get().submit().whenComplete((result, throwable) -> {
+                    if (throwable == null) {
+                        circuitBreaker.recordSuccess();
+                        future.complete(result);
+                    } else if (CircuitBreaker.isTransient(throwable)) {
+                        circuitBreaker.recordFailure();
+                        retry(this, throwable);
+                    } else {
+                        // The request reached Discord, which rejected it
+                        circuitBreaker.recordSuccess();
+                        future.completeExceptionally(throwable);
+                    }
+                    // Requests may have been held back for this request to complete (if it was a probe)
+                    executeDrain();
+                });
+            } catch (Exception e) {
+                // Thrown while building the request (such as for missing permissions or a too long message), so it
+                // never reached Discord; if this was the probe, the next request is sent as the probe instead
+                circuitBreaker.releaseProbe();
+                future.completeExceptionally(e);
+                executeDrain();
+            }
+        }
+    }
+
+
+    private static final class TokenBucket {
+        private int limit = DEFAULT_LIMIT;
+        private int remaining = DEFAULT_LIMIT;
+        private long resetTime = System.nanoTime();
+        // Whether resetTime came from the headers of a response in the current window, rather than being guessed
+        private boolean resetFromHeaders = false;
+
+        // Returns 0 if a token was acquired, else the time in nanoseconds until the bucket resets
+        synchronized long tryAcquire(long now) {
+            refill(now);
+            if (remaining > 0) {
+                if (remaining == limit && !resetFromHeaders) {
+                    // First request in this window, and Discord has not told us when it resets, so guess from now
+                    resetTime = now + DEFAULT_RESET_NANOS;
+                }
+                remaining--;
+                return 0;
+            }
+            return Math.max(1, resetTime - now);
+        }
+
+        synchronized int remaining(long now) {
+            refill(now);
+            return remaining;
+        }
+
+        synchronized void update(int remaining, int limit, long resetTime) {
+            if (limit > 0) {
+                this.limit = limit;
+            }
+            this.remaining = remaining;
+            this.resetTime = resetTime;
+            this.resetFromHeaders = true;
+        }
+
+        private void refill(long now) {
+            if (now - resetTime >= 0) {
+                remaining = limit;
+                // The reset from the headers has passed; the next window's reset is unknown until the next response
+                resetFromHeaders = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Concord - Copyright (c) 2020 SciWhiz12
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package dev.sciwhiz12.concord.msg;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import net.minecraft.network.ProtocolInfo;
+import net.minecraft.network.RegistryFriendlyByteBuf;
+import net.minecraft.network.chat.Component;
+import net.minecraft.network.protocol.game.ClientGamePacketListener;
+import net.minecraft.network.protocol.game.ClientboundSystemChatPacket;
+import net.minecraft.network.protocol.game.GameProtocols;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerPlayer;
+import net.neoforged.neoforge.network.connection.ConnectionType;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import static dev.sciwhiz12.concord.Concord.LOGGER;
+
+/**
+ * Broadcasts system chat messages to a group of players, by encoding the message packet once for the whole group and
+ * writing the encoded packet to each player's connection, instead of serializing the same message once per player.
+ *
+ * <p>The encoded packet is written to the connection's channel directly, below the packet encoder, so it still passes
+ * through the rest of the pipeline (length prefixing, compression and encryption). Memory connections (as used by
+ * integrated servers) do not have a packet encoder, so players on those connections are sent the packet normally.</p>
+ *
+ * <p>This class must only be used from the server thread.</p>
+ */
+final class PacketBroadcaster {
+    private final MinecraftServer server;
+    private final Map<ConnectionType, ProtocolInfo<ClientGamePacketListener>> protocols = new EnumMap<>(ConnectionType.class);
+
+    PacketBroadcaster(MinecraftServer server) {
+        this.server = server;
+    }
+
+    void broadcast(Component message, List<ServerPlayer> recipients) {
+        if (recipients.size() < 2) {
+            // Nothing to share the encoded packet with
+            recipients.forEach(player -> player.sendSystemMessage(message));
+            return;
+        }
+
+        final Map<ConnectionType, List<ServerPlayer>> byConnectionType = new EnumMap<>(ConnectionType.class);
+        for (ServerPlayer player : recipients) {
+            if (player.connection.getConnection().isMemoryConnection()) {
+                player.sendSystemMessage(message);
+            } else {
+                byConnectionType.computeIfAbsent(player.connection.getConnectionType(), k -> new ArrayList<>()).add(player);
+            }
+        }
+
+        final ClientboundSystemChatPacket packet = new ClientboundSystemChatPacket(message, false);
+        byConnectionType.forEach((connectionType, players) -> {
+            final ByteBuf encoded = Unpooled.buffer();
+            try {
+                protocol(connectionType).codec().encode(encoded, packet);
+            } catch (Exception e) {
+                LOGGER.warn("Failed to encode shared chat packet; sending to players individually", e);
+                encoded.release();
+                players.forEach(player -> player.connection.send(packet));
+                return;
+            }
+
+            for (ServerPlayer player : players) {
+                final Channel channel = player.connection.getConnection().channel();
+                // Each connection gets its own view of the buffer, which is released once written
+                channel.writeAndFlush(encoded.retainedDuplicate(), channel.voidPromise());
+            }
+            encoded.release();
+        });
+    }
+
+    private ProtocolInfo<ClientGamePacketListener> protocol(ConnectionType connectionType) {
+        return protocols.computeIfAbsent(connectionType, type ->
+                GameProtocols.CLIENTBOUND.bind(RegistryFriendlyByteBuf.decorator(server.registryAccess(), type)));
+    }
+}
@@ -22,7 +22,6 @@
 
 package dev.sciwhiz12.concord.msg;
 
-import dev.sciwhiz12.concord.ChatBot;
 import dev.sciwhiz12.concord.ConcordConfig;
 import dev.sciwhiz12.concord.util.Messages;
 import dev.sciwhiz12.concord.util.Translation;
@@ -39,34 +38,34 @@ import net.neoforged.neoforge.event.entity.player.AdvancementEvent;
 import net.neoforged.neoforge.event.entity.player.PlayerEvent;
 
 public class PlayerListener {
-    private final ChatBot bot;
+    private final DiscordRelay relay;
 
-    public PlayerListener(ChatBot bot) {
-        this.bot = bot;
+    public PlayerListener(DiscordRelay relay) {
+        this.relay = relay;
         NeoForge.EVENT_BUS.register(this);
     }
 
     @SubscribeEvent(priority = EventPriority.LOWEST)
     void onPlayerLogin(PlayerEvent.PlayerLoggedInEvent event) {
         if (event.getEntity().getCommandSenderWorld().isClientSide()) return;
-        bot.updateActivity(0);
+        relay.updateActivity(0);
         if (!ConcordConfig.PLAYER_JOIN.get()) return;
 
         Component text = Messages.PLAYER_JOIN.component(event.getEntity().getDisplayName());
 
-        bot.messaging().sendToDiscord(text.getString());
+        relay.relayToDiscord(text.getString(), MessageCategory.JOIN_LEAVE);
     }
 
     @SubscribeEvent(priority = EventPriority.LOWEST)
     void onPlayerLogout(PlayerEvent.PlayerLoggedOutEvent event) {
         if (event.getEntity().getCommandSenderWorld().isClientSide()) return;
         // The player is still on the player list during this event, so offset to account for it
-        bot.updateActivity(-1);
+        relay.updateActivity(-1);
         if (!ConcordConfig.PLAYER_LEAVE.get()) return;
 
         Component text = Messages.PLAYER_LEAVE.component(event.getEntity().getDisplayName());
 
-        bot.messaging().sendToDiscord(text.getString());
+        relay.relayToDiscord(text.getString(), MessageCategory.JOIN_LEAVE);
     }
 
     @SubscribeEvent(priority = EventPriority.LOWEST)
@@ -75,7 +74,7 @@ public class PlayerListener {
         if (!ConcordConfig.PLAYER_DEATH.get()) return;
 
         if (event.getEntity() instanceof ServerPlayer player) {
-            bot.messaging().sendToDiscord(player.getCombatTracker().getDeathMessage().getString());
+            relay.relayToDiscord(player.getCombatTracker().getDeathMessage().getString(), MessageCategory.DEATHS);
         }
     }
 
@@ -105,7 +104,7 @@ public class PlayerListener {
                     info.getTitle(),
                     info.getDescription());
 
-            bot.messaging().sendToDiscord(text.getString());
+            relay.relayToDiscord(text.getString(), MessageCategory.ADVANCEMENTS);
         }
     }
 }
@@ -0,0 +1,132 @@
+/*
+ * Concord - Copyright (c) 2020 SciWhiz12
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package dev.sciwhiz12.concord.msg;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.MessageReference;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static dev.sciwhiz12.concord.Concord.LOGGER;
+
+/**
+ * Cache of recently seen Discord messages, for resolving the messages referenced by replies without a REST request.
+ * Each channel has its own bounded cache, filled from the messages received from Discord and the messages sent by
+ * Concord.
+ */
+public class RecentMessageCache {
+    private static final int MESSAGES_PER_CHANNEL = 500;
+    private static final CompletableFuture<Message> NO_REFERENCE = CompletableFuture.completedFuture(null);
+
+    private final Map<Long, Cache<Long, Message>> channels = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public void remember(Message message) {
+        channels.computeIfAbsent(message.getChannelIdLong(), k -> CacheBuilder.newBuilder()
+                        .maximumSize(MESSAGES_PER_CHANNEL)
+                        .expireAfterWrite(6, TimeUnit.HOURS)
+                        .build())
+                .put(message.getIdLong(), message);
+    }
+
+    /**
+     * Replaces a message with its updated version, if the message is in the cache.
+     */
+    public void update(Message message) {
+        final @Nullable Cache<Long, Message> channel = channels.get(message.getChannelIdLong());
+        if (channel != null) {
+            channel.asMap().replace(message.getIdLong(), message);
+        }
+    }
+
+    public void forget(long channelId, long messageId) {
+        final @Nullable Cache<Long, Message> channel = channels.get(channelId);
+        if (channel != null) {
+            channel.invalidate(messageId);
+        }
+    }
+
+    public @Nullable Message find(long channelId, long messageId) {
+        final @Nullable Cache<Long, Message> channel = channels.get(channelId);
+        return channel != null ? channel.getIfPresent(messageId) : null;
+    }
+
+    /**
+     * Resolves the message referenced by the given message. The referenced message is taken from the given message
+     * (as Discord usually includes it) or from this cache, and only requested from Discord if neither has it.
+     *
+     * @param message the message
+     * @return a future completed with the referenced message, or with {@code null} if the message does not reference
+     * another message or the referenced message could not be retrieved
+     */
+    public CompletableFuture<Message> resolveReference(Message message) {
+        final @Nullable MessageReference reference = message.getMessageReference();
+        if (reference == null) return NO_REFERENCE;
+
+        final @Nullable Message included = reference.getMessage();
+        if (included != null) {
+            hits.incrementAndGet();
+            return CompletableFuture.completedFuture(included);
+        }
+        final @Nullable Message cached = find(reference.getChannelIdLong(), reference.getMessageIdLong());
+        if (cached != null) {
+            hits.incrementAndGet();
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        misses.incrementAndGet();
+        return reference.resolve().submit()
+                .thenApply(referenced -> {
+                    remember(referenced);
+                    return referenced;
+                })
+                .exceptionally(throwable -> {
+                    LOGGER.debug("Failed to retrieve referenced message {}", reference.getMessageIdLong(), throwable);
+                    return null;
+                })
+                // Messages are delivered in order, so a stuck request must not hold back the messages after it
+                .completeOnTimeout(null, 10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * {@return the amount of referenced messages which were resolved without a request to Discord}
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * {@return the amount of referenced messages which had to be requested from Discord}
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+}
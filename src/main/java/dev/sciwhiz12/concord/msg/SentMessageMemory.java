@@ -22,32 +22,124 @@
 
 package dev.sciwhiz12.concord.msg;
 
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
 import com.mojang.authlib.GameProfile;
 import dev.sciwhiz12.concord.ChatBot;
+import dev.sciwhiz12.concord.ConcordConfig;
+import io.netty.buffer.Unpooled;
+import net.minecraft.network.RegistryFriendlyByteBuf;
 import net.minecraft.network.chat.Component;
+import net.minecraft.network.chat.ComponentSerialization;
+import net.neoforged.fml.loading.FMLPaths;
 
 import javax.annotation.Nullable;
-import java.util.concurrent.TimeUnit;
+import java.io.IOException;
+import java.util.UUID;
 
+import static dev.sciwhiz12.concord.Concord.LOGGER;
+import static dev.sciwhiz12.concord.Concord.MODID;
+
+/**
+ * Memory of the chat messages which were sent to Discord, so replies to them can show the player who sent them.
+ *
+ * <p>Each remembered message only keeps the player's UUID and name, and the message component encoded into bytes; the
+ * component is decoded again only when a reply references the message. The messages are kept in a
+ * {@linkplain MappedMessageStore file on disk} if {@linkplain ConcordConfig#SENT_MESSAGES_PERSISTENT enabled}, so
+ * replies to messages sent before a restart still show the player, else they are kept
+ * {@linkplain HeapMessageStore in the heap}.</p>
+ */
 public class SentMessageMemory {
     private final ChatBot bot;
-    private final Cache<Long, RememberedMessageImpl> memory = CacheBuilder.newBuilder()
-            .expireAfterAccess(6, TimeUnit.HOURS)
-            .initialCapacity(1_000)
-            .build();
+    private final MessageStore store;
 
     public SentMessageMemory(ChatBot bot) {
         this.bot = bot;
+        this.store = openStore();
     }
 
-    public void rememberMessage(long messageSnowflake, GameProfile player, Component message) {
-        memory.put(messageSnowflake, new RememberedMessageImpl(player, message));
+    private static MessageStore openStore() {
+        if (ConcordConfig.SENT_MESSAGES_PERSISTENT.get()) {
+            try {
+                return MappedMessageStore.open(FMLPaths.GAMEDIR.get().resolve(MODID).resolve("sent_messages.dat"),
+                        ConcordConfig.SENT_MESSAGES_MAX_SIZE.get() * 1024L * 1024L);
+            } catch (IOException e) {
+                LOGGER.error("Failed to open sent message store; sent messages will not be remembered across restarts", e);
+            }
+        }
+        return new HeapMessageStore();
+    }
+
+    public synchronized void rememberMessage(long messageSnowflake, GameProfile player, Component message) {
+        final @Nullable MessageStore.Entry existing = store.get(messageSnowflake);
+        if (existing != null) {
+            // Batched messages share a snowflake, so the lines are joined together under the first remembered player
+            final @Nullable Component existingMessage = decode(existing.message());
+            if (existingMessage == null) return;
+            store.put(messageSnowflake, existing.withMessage(encode(Component.empty()
+                    .append(existingMessage).append("\n").append(message))));
+            return;
+        }
+
+        final UUID id = player.getId();
+        store.put(messageSnowflake, new MessageStore.Entry(id.getMostSignificantBits(), id.getLeastSignificantBits(),
+                player.getName(), encode(message), System.currentTimeMillis()));
     }
 
     public @Nullable RememberedMessage findMessage(long messageSnowflake) {
-        return memory.getIfPresent(messageSnowflake);
+        final @Nullable MessageStore.Entry entry = store.get(messageSnowflake);
+        if (entry == null) {
+            return null;
+        }
+
+        final @Nullable Component message = decode(entry.message());
+        if (message == null) {
+            return null;
+        }
+        return new RememberedMessageImpl(new GameProfile(new UUID(entry.playerMost(), entry.playerLeast()),
+                entry.playerName()), message);
+    }
+
+    /**
+     * {@return the number of remembered messages}
+     */
+    public int size() {
+        return store.size();
+    }
+
+    /**
+     * {@return the approximate number of bytes used by the memory}
+     */
+    public long estimateFootprint() {
+        return store.estimateFootprint();
+    }
+
+    public void close() {
+        store.close();
+    }
+
+    private byte[] encode(Component message) {
+        final RegistryFriendlyByteBuf buf = new RegistryFriendlyByteBuf(Unpooled.buffer(),
+                bot.getServer().registryAccess());
+        try {
+            ComponentSerialization.STREAM_CODEC.encode(buf, message);
+            final byte[] bytes = new byte[buf.readableBytes()];
+            buf.readBytes(bytes);
+            return bytes;
+        } finally {
+            buf.release();
+        }
+    }
+
+    private @Nullable Component decode(byte[] message) {
+        final RegistryFriendlyByteBuf buf = new RegistryFriendlyByteBuf(Unpooled.wrappedBuffer(message),
+                bot.getServer().registryAccess());
+        try {
+            return ComponentSerialization.STREAM_CODEC.decode(buf);
+        } catch (Exception e) {
+            LOGGER.warn("Failed to decode remembered chat message", e);
+            return null;
+        } finally {
+            buf.release();
+        }
     }
 
     public interface RememberedMessage {
@@ -22,7 +22,6 @@
 
 package dev.sciwhiz12.concord.msg;
 
-import dev.sciwhiz12.concord.ChatBot;
 import dev.sciwhiz12.concord.ConcordConfig;
 import dev.sciwhiz12.concord.util.Messages;
 import net.neoforged.bus.api.EventPriority;
@@ -32,10 +31,10 @@ import net.neoforged.neoforge.event.server.ServerStartedEvent;
 import net.neoforged.neoforge.event.server.ServerStoppingEvent;
 
 public class StatusListener {
-    private final ChatBot bot;
+    private final DiscordRelay relay;
 
-    public StatusListener(ChatBot bot) {
-        this.bot = bot;
+    public StatusListener(DiscordRelay relay) {
+        this.relay = relay;
         NeoForge.EVENT_BUS.register(this);
     }
 
@@ -43,13 +42,13 @@ public class StatusListener {
     void onServerStarted(ServerStartedEvent event) {
         if (!ConcordConfig.SERVER_START.get()) return;
 
-        bot.messaging().sendToDiscord(Messages.SERVER_START.component().getString());
+        relay.relayToDiscord(Messages.SERVER_START.component().getString(), MessageCategory.LIFECYCLE);
     }
 
     @SubscribeEvent(priority = EventPriority.LOW)
     void onServerStopping(ServerStoppingEvent event) {
         if (!ConcordConfig.SERVER_STOP.get()) return;
 
-        bot.messaging().sendToDiscord(Messages.SERVER_STOP.component().getString());
+        relay.relayToDiscord(Messages.SERVER_STOP.component().getString(), MessageCategory.LIFECYCLE);
     }
 }
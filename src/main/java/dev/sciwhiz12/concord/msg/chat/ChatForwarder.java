@@ -22,9 +22,22 @@
 
 package dev.sciwhiz12.concord.msg.chat;
 
+import com.mojang.authlib.GameProfile;
 import net.minecraft.network.chat.Component;
 import net.minecraft.server.level.ServerPlayer;
 
 public interface ChatForwarder {
-    void forward(ServerPlayer player, Component message);
+    default void forward(ServerPlayer player, Component message) {
+        forward(player.getGameProfile(), player.getDisplayName(), message);
+    }
+
+    /**
+     * Forwards a chat message from a player. Only the player's profile and display name are kept, so forwarders which
+     * hold on to them (such as to edit the message later) do not hold on to the player.
+     *
+     * @param player      the profile of the player
+     * @param displayName the display name of the player
+     * @param message     the chat message
+     */
+    void forward(GameProfile player, Component displayName, Component message);
 }
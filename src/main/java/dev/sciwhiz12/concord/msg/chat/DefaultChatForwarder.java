@@ -22,9 +22,9 @@
 
 package dev.sciwhiz12.concord.msg.chat;
 
+import com.mojang.authlib.GameProfile;
 import dev.sciwhiz12.concord.ChatBot;
 import net.minecraft.network.chat.Component;
-import net.minecraft.server.level.ServerPlayer;
 
 public class DefaultChatForwarder implements ChatForwarder {
     private final ChatBot bot;
@@ -33,9 +33,10 @@ public class DefaultChatForwarder implements ChatForwarder {
         this.bot = bot;
     }
 
-    public void forward(ServerPlayer player, Component message) {
+    @Override
+    public void forward(GameProfile player, Component displayName, Component message) {
         bot.messaging().sendToDiscord(
-                        Component.translatable("chat.type.text", player.getDisplayName(), message))
-                .thenAccept(sentMessage -> bot.getSentMessageMemory().rememberMessage(sentMessage.getIdLong(), player.getGameProfile(), message));
+                        Component.translatable("chat.type.text", displayName, message))
+                .thenAccept(sentMessage -> bot.getSentMessageMemory().rememberMessage(sentMessage.getIdLong(), player, message));
     }
 }
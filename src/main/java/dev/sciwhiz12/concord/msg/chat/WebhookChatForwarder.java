@@ -22,66 +22,370 @@
 
 package dev.sciwhiz12.concord.msg.chat;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.mojang.authlib.GameProfile;
 import dev.sciwhiz12.concord.ChatBot;
 import dev.sciwhiz12.concord.ConcordConfig;
+import dev.sciwhiz12.concord.msg.CircuitBreaker;
+import dev.sciwhiz12.concord.msg.MessageCategory;
+import dev.sciwhiz12.concord.msg.OutboundScheduler;
 import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.entities.WebhookClient;
 import net.dv8tion.jda.api.requests.restaction.WebhookMessageCreateAction;
 import net.minecraft.network.chat.Component;
-import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.network.chat.MutableComponent;
 
 import javax.annotation.Nullable;
-import java.util.EnumSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Chat forwarder which sends chat messages through a pool of webhooks, with the player's name and avatar.
+ *
+ * <p>Each player sticks to one webhook, so their messages stay in order. A player is moved to the webhook with the
+ * most remaining capacity in its rate-limit bucket only when their webhook is exhausted and none of their messages are
+ * in flight. If every webhook is exhausted, messages are sent through the bot instead.</p>
+ *
+ * <p>If {@linkplain ConcordConfig#WEBHOOK_MERGE_WINDOW enabled}, lines sent by a player shortly after their last
+ * message are appended to that message by editing it, instead of being sent as new messages. Edits are debounced, so
+ * a burst of lines is appended in one edit, but an edit is never held back for longer than
+ * {@value #MAX_DEBOUNCE_FACTOR} times the debounce time.</p>
+ *
+ * <p>Each line is written to the {@linkplain dev.sciwhiz12.concord.msg.Messaging#spool(String, MessageCategory)
+ * spool} before it is sent, and acknowledged once the message holding it is created or edited, so lines which fail
+ * to send (or are not sent before the server stops) are replayed through the bot. While the circuit breaker is open,
+ * messages are sent through the bot instead, which keeps them in the spool until Discord is reachable again.</p>
+ */
 public class WebhookChatForwarder implements ChatForwarder {
+    private static final int MAX_DEBOUNCE_FACTOR = 4;
+
     private final ChatBot bot;
-    private final WebhookClient<Message> client;
+    private final List<WebhookClient<Message>> clients;
+    private final String[] routes;
     @Nullable
     private final String avatarUrl;
+    private final ChatForwarder fallback;
+    private final Cache<UUID, PlayerState> players = CacheBuilder.newBuilder()
+            .expireAfterAccess(1, TimeUnit.HOURS)
+            .build();
 
-    public WebhookChatForwarder(ChatBot bot, WebhookClient<Message> client, @Nullable String avatarUrl) {
+    public WebhookChatForwarder(ChatBot bot, List<WebhookClient<Message>> clients, @Nullable String avatarUrl) {
+        if (clients.isEmpty()) {
+            throw new IllegalArgumentException("At least one webhook is required");
+        }
         this.bot = bot;
-        this.client = client;
+        this.clients = List.copyOf(clients);
+        this.routes = this.clients.stream()
+                .map(client -> OutboundScheduler.webhookRoute(client.getIdLong()))
+                .toArray(String[]::new);
         this.avatarUrl = avatarUrl;
+        this.fallback = new DefaultChatForwarder(bot);
     }
 
     @Override
-    public void forward(ServerPlayer player, Component message) {
-        WebhookMessageCreateAction<Message> action = client.sendMessage(message.getString())
+    public void forward(GameProfile player, Component displayName, Component message) {
+        final CircuitBreaker circuitBreaker = bot.getOutboundScheduler().getCircuitBreaker();
+        if (circuitBreaker.isOpen()) {
+            // Sent through the bot, which spools the message to be sent once the breaker closes
+            fallback.forward(player, displayName, message);
+            return;
+        }
+
+        final PlayerState state = playerState(player);
+        final String text = message.getString();
+        if (tryMerge(state, displayName, message, text)) {
+            return;
+        }
+
+        final int webhook = selectWebhook(state);
+        if (webhook == -1) {
+            // Every webhook is exhausted, so send through the bot instead
+            fallback.forward(player, displayName, message);
+            return;
+        }
+        send(state, webhook, player, displayName, message, text);
+    }
+
+    private void send(PlayerState state, int webhook, GameProfile player, Component displayName, Component message,
+                      String text) {
+        WebhookMessageCreateAction<Message> action = clients.get(webhook).sendMessage(text)
                 .setTTS(false)
-                .setUsername(player.getDisplayName().getString())
-                .setAllowedMentions(getAllowedMentions());
+                .setUsername(displayName.getString())
+                .setAllowedMentions(bot.getConfig().allowedMentions());
+        if (state.avatarUrl != null) {
+            action = action.setAvatarUrl(state.avatarUrl);
+        }
+
+        final long spoolId = spool(displayName, message);
+        final @Nullable MergeTarget target;
+        if (ConcordConfig.WEBHOOK_MERGE_WINDOW.get() > 0) {
+            target = new MergeTarget(webhook, player, displayName, text);
+            synchronized (state) {
+                state.merge = target;
+            }
+        } else {
+            target = null;
+        }
+
+        final WebhookMessageCreateAction<Message> request = action;
+        state.inFlight.incrementAndGet();
+        bot.getOutboundScheduler().submit(routes[webhook], () -> request)
+                .whenComplete((sentMessage, throwable) -> {
+                    state.inFlight.decrementAndGet();
+                    bot.messaging().completeSpooled(spoolId, throwable);
+                    if (target != null) {
+                        onMergeTargetSent(state, target, sentMessage);
+                    }
+                })
+                .thenAccept(sentMessage -> {
+                    bot.getSentMessageMemory().rememberMessage(sentMessage.getIdLong(), player, message);
+                    bot.getRecentMessages().remember(sentMessage);
+                });
+    }
 
-        if (avatarUrl != null) {
-            final String playerUUID = player.getStringUUID();
-            final String playerAvatarUrl = avatarUrl
-                    .replace("{uuid}", playerUUID.replace("-", ""))
-                    .replace("{uuid-dash}", playerUUID)
-                    .replace("{username}", player.getGameProfile().getName());
+    // Returns the index of the webhook to send the player's message through, or -1 if all webhooks are exhausted
+    private int selectWebhook(PlayerState state) {
+        final OutboundScheduler scheduler = bot.getOutboundScheduler();
+        synchronized (state) {
+            if (state.webhook != -1 && (scheduler.getAvailableCapacity(routes[state.webhook]) > 0
+                    || state.inFlight.get() > 0)) {
+                // Stay on the same webhook while messages are in flight, even if it is exhausted, to keep them in order
+                return state.webhook;
+            }
 
-            action = action.setAvatarUrl(playerAvatarUrl);
+            // Start from a different webhook for each player, so ties are spread across the webhooks
+            final int start = Math.floorMod(state.hash, routes.length);
+            int best = -1;
+            int bestCapacity = 0;
+            for (int i = 0; i < routes.length; i++) {
+                final int index = (start + i) % routes.length;
+                final int capacity = scheduler.getAvailableCapacity(routes[index]);
+                if (capacity > bestCapacity) {
+                    best = index;
+                    bestCapacity = capacity;
+                }
+            }
+            if (best != -1) {
+                state.webhook = best;
+            }
+            return best;
         }
+    }
 
-        action.queue(sentMessage ->
-                bot.getSentMessageMemory().rememberMessage(sentMessage.getIdLong(), player.getGameProfile(), message));
+    /**
+     * Appends the line to the player's last message if it is recent and small enough, scheduling an edit of the
+     * message.
+     *
+     * @return whether the line was appended
+     */
+    private boolean tryMerge(PlayerState state, Component displayName, Component message, String text) {
+        final int window = ConcordConfig.WEBHOOK_MERGE_WINDOW.get();
+        if (window <= 0) return false;
+
+        final long now = System.nanoTime();
+        synchronized (state) {
+            final @Nullable MergeTarget target = state.merge;
+            if (target == null || target.closed) return false;
+            if (now - target.lastLineTime > TimeUnit.MILLISECONDS.toNanos(window)
+                    || target.content.length() + 1 + text.length() > ConcordConfig.WEBHOOK_MERGE_MAX_LENGTH.get()) {
+                // Too old or too large, so the line starts a new message (and the next merge target); the target is
+                // not closed, as lines already appended to it may still need to be edited in
+                state.merge = null;
+                return false;
+            }
+
+            target.content.append('\n').append(text);
+            if (target.pendingLines.isEmpty()) {
+                target.firstPendingTime = now;
+            }
+            target.pendingLines.add(new Line(message, spool(displayName, message)));
+            target.lastLineTime = now;
+            if (target.messageId != 0) {
+                scheduleEdit(state, target);
+            }
+            // Otherwise, the edit is scheduled once the message is created
+            return true;
+        }
     }
 
-    private Set<Message.MentionType> getAllowedMentions() {
-        if (ConcordConfig.ALLOW_MENTIONS.get()) {
-            final Set<Message.MentionType> mentions = EnumSet.noneOf(Message.MentionType.class);
-            if (ConcordConfig.ALLOW_PUBLIC_MENTIONS.get()) {
-                mentions.add(Message.MentionType.EVERYONE);
-                mentions.add(Message.MentionType.HERE);
+    private void onMergeTargetSent(PlayerState state, MergeTarget target, @Nullable Message sentMessage) {
+        final List<Line> unsent;
+        synchronized (state) {
+            if (sentMessage != null) {
+                target.messageId = sentMessage.getIdLong();
+                if (!target.pendingLines.isEmpty()) {
+                    scheduleEdit(state, target);
+                }
+                return;
             }
-            if (ConcordConfig.ALLOW_USER_MENTIONS.get()) {
-                mentions.add(Message.MentionType.USER);
+
+            // The message could not be created, so the lines appended to it are sent on their own
+            target.closed = true;
+            if (state.merge == target) {
+                state.merge = null;
             }
-            if (ConcordConfig.ALLOW_ROLE_MENTIONS.get()) {
-                mentions.add(Message.MentionType.ROLE);
+            unsent = List.copyOf(target.pendingLines);
+            target.pendingLines.clear();
+        }
+        resend(target, unsent);
+    }
+
+    // Must be called while holding the lock on the state
+    private void scheduleEdit(PlayerState state, MergeTarget target) {
+        if (target.editScheduled) return;
+        target.editScheduled = true;
+        CompletableFuture.delayedExecutor(ConcordConfig.WEBHOOK_MERGE_DEBOUNCE.get(), TimeUnit.MILLISECONDS)
+                .execute(() -> edit(state, target));
+    }
+
+    private void edit(PlayerState state, MergeTarget target) {
+        final String content;
+        final List<Line> lines;
+        synchronized (state) {
+            if (target.closed) {
+                // Sending or editing the message failed, and its pending lines were resent on their own
+                target.editScheduled = false;
+                return;
+            }
+            final long now = System.nanoTime();
+            final long debounce = TimeUnit.MILLISECONDS.toNanos(ConcordConfig.WEBHOOK_MERGE_DEBOUNCE.get());
+            final long quiet = now - target.lastLineTime;
+            final long waited = now - target.firstPendingTime;
+            if (quiet < debounce && waited < debounce * MAX_DEBOUNCE_FACTOR) {
+                // More lines arrived while waiting, so wait for the burst to end (but not past the bound)
+                final long delay = Math.min(debounce - quiet, debounce * MAX_DEBOUNCE_FACTOR - waited);
+                CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS).execute(() -> edit(state, target));
+                return;
             }
-            return mentions;
+            target.editScheduled = false;
+            // An edit in flight schedules the next edit once it succeeds; if it fails, it resends the pending lines
+            if (target.editing || target.pendingLines.isEmpty()) return;
+            target.editing = true;
+            content = target.content.toString();
+            lines = List.copyOf(target.pendingLines);
+            target.pendingLines.clear();
         }
-        return Set.of();
+
+        final WebhookClient<Message> client = clients.get(target.webhook);
+        bot.getOutboundScheduler().submit(routes[target.webhook], () -> client.editMessageById(target.messageId, content)
+                        .setAllowedMentions(bot.getConfig().allowedMentions()))
+                .whenComplete((editedMessage, throwable) -> {
+                    if (throwable == null) {
+                        // The one message holds all the lines, each of which is remembered under its ID
+                        for (Line line : lines) {
+                            bot.getSentMessageMemory().rememberMessage(target.messageId, target.player, line.message);
+                            bot.messaging().completeSpooled(line.spoolId, null);
+                        }
+                        bot.getRecentMessages().update(editedMessage);
+                        synchronized (state) {
+                            target.editing = false;
+                            if (!target.pendingLines.isEmpty()) {
+                                scheduleEdit(state, target);
+                            }
+                        }
+                        return;
+                    }
+
+                    // The message could not be edited (such as if it was deleted), so the lines are sent on their own,
+                    // along with the lines appended since, which will then not be edited into the message
+                    final List<Line> unsent = new ArrayList<>(lines);
+                    synchronized (state) {
+                        target.editing = false;
+                        target.closed = true;
+                        if (state.merge == target) {
+                            state.merge = null;
+                        }
+                        unsent.addAll(target.pendingLines);
+                        target.pendingLines.clear();
+                    }
+                    resend(target, unsent);
+                });
+    }
+
+    private void resend(MergeTarget target, List<Line> lines) {
+        if (lines.isEmpty()) return;
+        final MutableComponent joined = Component.empty();
+        for (int i = 0; i < lines.size(); i++) {
+            if (i > 0) joined.append("\n");
+            joined.append(lines.get(i).message);
+        }
+        // The joined lines are spooled again when forwarded, so the spooled lines are acknowledged after
+        forward(target.player, target.displayName, joined);
+        for (Line line : lines) {
+            bot.messaging().completeSpooled(line.spoolId, null);
+        }
+    }
+
+    // Spools the message as it would be sent through the bot, as that is how it is replayed
+    private long spool(Component displayName, Component message) {
+        return bot.messaging().spool(Component.translatable("chat.type.text", displayName, message).getString(),
+                MessageCategory.CHAT);
+    }
+
+    private PlayerState playerState(GameProfile player) {
+        // The avatar URL is resolved once per player, rather than for every message
+        return players.asMap().computeIfAbsent(player.getId(),
+                uuid -> new PlayerState(uuid.hashCode(), resolveAvatarUrl(player)));
+    }
+
+    @Nullable
+    private String resolveAvatarUrl(GameProfile player) {
+        if (avatarUrl == null) return null;
+        final String playerUUID = player.getId().toString();
+        return avatarUrl
+                .replace("{uuid}", playerUUID.replace("-", ""))
+                .replace("{uuid-dash}", playerUUID)
+                .replace("{username}", player.getName());
+    }
+
+    private static final class PlayerState {
+        final int hash;
+        @Nullable
+        final String avatarUrl;
+        final AtomicInteger inFlight = new AtomicInteger();
+        // Guarded by this
+        int webhook = -1;
+        // Guarded by this
+        @Nullable
+        MergeTarget merge;
+
+        PlayerState(int hash, @Nullable String avatarUrl) {
+            this.hash = hash;
+            this.avatarUrl = avatarUrl;
+        }
+    }
+
+    // A player's last message, to which new lines may be appended; all fields are guarded by the player's state
+    private static final class MergeTarget {
+        final int webhook;
+        final GameProfile player;
+        final Component displayName;
+        final StringBuilder content;
+        // Lines appended to the content which have not yet been edited into the message
+        final List<Line> pendingLines = new ArrayList<>();
+        // The ID of the message, or 0 if it has not been created yet
+        long messageId = 0;
+        long lastLineTime = System.nanoTime();
+        long firstPendingTime;
+        boolean editScheduled = false;
+        boolean editing = false;
+        // Set once sending or editing the message failed, after which no lines are appended or edited into it
+        boolean closed = false;
+
+        MergeTarget(int webhook, GameProfile player, Component displayName, String content) {
+            this.webhook = webhook;
+            this.player = player;
+            this.displayName = displayName;
+            this.content = new StringBuilder(content);
+        }
+    }
+
+    // A line appended to a merge target, with its ID in the spool (or -1 if not spooled)
+    private record Line(Component message, long spoolId) {
     }
 }
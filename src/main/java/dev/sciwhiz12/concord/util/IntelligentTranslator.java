@@ -22,8 +22,10 @@
 
 package dev.sciwhiz12.concord.util;
 
-import com.google.common.collect.Maps;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import net.minecraft.network.chat.Component;
+import net.minecraft.network.chat.ComponentContents;
 import net.minecraft.network.chat.HoverEvent;
 import net.minecraft.network.chat.MutableComponent;
 import net.minecraft.network.chat.Style;
@@ -36,7 +38,10 @@ import java.util.function.Function;
 import java.util.function.UnaryOperator;
 
 public class IntelligentTranslator<C> {
-    private final Map<C, MutableComponent> cache = new HashMap<>();
+    // Bounded, as each translator only has a few contexts (one per rendering variant)
+    private final Cache<C, MutableComponent> cache = CacheBuilder.newBuilder()
+            .maximumSize(32)
+            .build();
     private final Function<C, MutableComponent> componentCreator;
     private final KeyTranslator<C> keyFunction;
 
@@ -45,113 +50,104 @@ public class IntelligentTranslator<C> {
         this.keyFunction = keyFunction;
     }
 
+    /**
+     * {@return the component for the given context} The returned component (and its subcomponents) may be shared with
+     * other contexts, so it must not be modified.
+     *
+     * <p>This may be called from any thread.</p>
+     *
+     * @param context the context
+     */
     public MutableComponent resolve(C context) {
-        return cache.computeIfAbsent(context, this::doResolve);
+        return cache.asMap().computeIfAbsent(context, this::doResolve);
     }
 
     private MutableComponent doResolve(C context) {
         final MutableComponent component = componentCreator.apply(context);
-        final Set<String> componentKeys = collectKeys(component);
 
-        // Resolve all the keys once ahead of time
-        final Map<String, String> newKeys = new HashMap<>(Maps.asMap(componentKeys, key -> keyFunction.apply(key, context)));
+        // Each key is resolved once, when first encountered
+        final Map<String, String> resolvedKeys = new HashMap<>();
+        final UnaryOperator<String> resolver = key -> resolvedKeys.computeIfAbsent(key, k -> keyFunction.apply(k, context));
 
-        // If the original and transformed keys are the same, delete
-        newKeys.entrySet().removeIf(entry -> entry.getKey().equals(entry.getValue()));
-
-        // If there are no changes between the original keys and the new keys (as applied by the function with context),
-        // Return the base component directly
-        if (newKeys.isEmpty()) {
-            return component;
-        }
-
-        return checkComponent(component, key -> newKeys.getOrDefault(key, key));
+        // The result is the original component if no keys changed, else a new component with its unchanged subtrees
+        // shared with the original component (so it is always a MutableComponent)
+        return (MutableComponent) checkComponent(component, resolver);
     }
 
-    // This returns a new component
-    private MutableComponent checkComponent(Component original, UnaryOperator<String> resolver) {
-        MutableComponent result;
-        if (original.getContents() instanceof TranslatableContents translatable) {
-            result = translateEagerly(translatable, resolver);
-        } else {
-            result = original.plainCopy();
+    // Returns the original component if it has no changed keys, else a new component sharing the unchanged subtrees
+    private Component checkComponent(Component original, UnaryOperator<String> resolver) {
+        final ComponentContents contents = original.getContents();
+        final ComponentContents newContents = contents instanceof TranslatableContents translatable
+                ? checkTranslatable(translatable, resolver)
+                : contents;
+        final Style style = original.getStyle();
+        final Style newStyle = checkHover(style, resolver);
+        final List<Component> siblings = original.getSiblings();
+        final @Nullable List<Component> newSiblings = checkSiblings(siblings, resolver);
+
+        if (newContents == contents && newStyle == style && newSiblings == null) {
+            return original;
         }
-        result.setStyle(checkHover(original.getStyle(), resolver));
-        checkSiblings(original, resolver).forEach(result::append);
+
+        final MutableComponent result = MutableComponent.create(newContents).setStyle(newStyle);
+        result.getSiblings().addAll(newSiblings != null ? newSiblings : siblings);
         return result;
     }
 
-    // Does not modify the original component
-    private List<Component> checkSiblings(Component original, UnaryOperator<String> resolver) {
-        final ArrayList<Component> result = new ArrayList<>();
-        for (Component sibling : original.getSiblings()) {
-            // The new siblings are copies (see checkComponent)
-            result.add(checkComponent(sibling, resolver));
+    // Returns null if none of the siblings have changed keys
+    @Nullable
+    private List<Component> checkSiblings(List<Component> siblings, UnaryOperator<String> resolver) {
+        @Nullable List<Component> result = null;
+        for (int i = 0; i < siblings.size(); i++) {
+            final Component sibling = siblings.get(i);
+            final Component checked = checkComponent(sibling, resolver);
+            if (checked != sibling) {
+                if (result == null) {
+                    result = new ArrayList<>(siblings);
+                }
+                result.set(i, checked);
+            }
         }
         return result;
     }
 
-    // The returned (newly created) component does not have the original's style or siblings
-    private MutableComponent translateEagerly(TranslatableContents contents, UnaryOperator<String> resolver) {
-        Object[] oldArgs = contents.getArgs();
-        Object[] newArgs = new Object[oldArgs.length];
-
-        for (int i = 0; i < oldArgs.length; i++) {
-            Object obj = oldArgs[i];
-            if (obj instanceof Component componentArg) {
-                obj = checkComponent(componentArg, resolver);
+    // Returns the original contents if neither the key nor the args have changed keys
+    private TranslatableContents checkTranslatable(TranslatableContents contents, UnaryOperator<String> resolver) {
+        final Object[] args = contents.getArgs();
+        @Nullable Object[] newArgs = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i] instanceof Component componentArg) {
+                final Component checked = checkComponent(componentArg, resolver);
+                if (checked != componentArg) {
+                    if (newArgs == null) {
+                        newArgs = args.clone();
+                    }
+                    newArgs[i] = checked;
+                }
             }
-            newArgs[i] = obj;
         }
 
-        return Component.translatable(resolver.apply(contents.getKey()), newArgs);
+        final String key = contents.getKey();
+        final String newKey = resolver.apply(key);
+        if (newArgs == null && newKey.equals(key)) {
+            return contents;
+        }
+        return new TranslatableContents(newKey, contents.getFallback(), newArgs != null ? newArgs : args);
     }
 
-    // Returns a new style
+    // Returns the original style if the hover text has no changed keys
     private Style checkHover(Style style, UnaryOperator<String> resolver) {
         @Nullable HoverEvent hover = style.getHoverEvent();
         if (hover != null && hover.getAction() == HoverEvent.Action.SHOW_TEXT) {
             @Nullable Component hoverComponent = hover.getValue(HoverEvent.Action.SHOW_TEXT);
             if (hoverComponent != null) {
-                return style.withHoverEvent(new HoverEvent(HoverEvent.Action.SHOW_TEXT,
-                        checkComponent(hoverComponent, resolver)));
-            }
-        }
-        return style;
-    }
-
-    private Set<String> collectKeys(Component component) {
-        final HashSet<String> keys = new HashSet<>();
-        final Deque<Component> components = new ArrayDeque<>();
-        components.add(component);
-
-        @Nullable Component current;
-        while ((current = components.poll()) != null) {
-            if (current.getContents() instanceof TranslatableContents translatable) {
-                keys.add(translatable.getKey());
-
-                // Add components in the TranslatableComponent's args for checking
-                for (Object arg : translatable.getArgs()) {
-                    if (arg instanceof Component componentArg) {
-                        components.add(componentArg);
-                    }
-                }
-            }
-
-            // Add all component's siblings for checking
-            components.addAll(current.getSiblings());
-
-            @Nullable HoverEvent hover = current.getStyle().getHoverEvent();
-            if (hover != null) {
-                @Nullable Component hoverComponent = hover.getValue(HoverEvent.Action.SHOW_TEXT);
-                if (hoverComponent != null) {
-                    // Add component in hover for checking
-                    components.add(hoverComponent);
+                final Component checked = checkComponent(hoverComponent, resolver);
+                if (checked != hoverComponent) {
+                    return style.withHoverEvent(new HoverEvent(HoverEvent.Action.SHOW_TEXT, checked));
                 }
             }
         }
-
-        return keys;
+        return style;
     }
 
     @FunctionalInterface
@@ -116,7 +116,7 @@ public interface Translation {
      * @see #eagerComponent(Object...)
      */
     default MutableComponent eagerComponent() {
-        return TranslationUtil.eagerTranslate(component());
+        return TranslationUtil.eagerComponent(this);
     }
 
     /**
@@ -126,7 +126,7 @@ public interface Translation {
      * @see #eagerComponent()
      */
     default MutableComponent eagerComponent(Object... formatArgs) {
-        return TranslationUtil.eagerTranslate(component(formatArgs));
+        return TranslationUtil.eagerComponent(this, formatArgs);
     }
 
     private boolean translateEagerly(CommandSourceStack source) {
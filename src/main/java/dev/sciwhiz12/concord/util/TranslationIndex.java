@@ -0,0 +1,124 @@
+/*
+ * Concord - Copyright (c) 2020 SciWhiz12
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package dev.sciwhiz12.concord.util;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMaps;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.apache.maven.artifact.versioning.ArtifactVersion;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Compiled index of all of Concord's translations. Each translation has a dense integer ID, and for each version of
+ * the {@linkplain dev.sciwhiz12.concord.features.FeatureVersion#TRANSLATIONS translations feature}, there is a table
+ * of whether each translation can be lazily translated by a client with that version (as in, the client has the same
+ * major and minor version of the translation).
+ *
+ * <p>The index is computed from the translation enums when first used, and each table is computed once when first
+ * needed for its version.</p>
+ *
+ * <p>The index is immutable (except for the lazily computed tables) and safe to use from any thread.</p>
+ */
+public final class TranslationIndex {
+    private static final TranslationIndex INSTANCE = compute();
+
+    private final Translation[] translations;
+    private final Object2IntMap<String> ids;
+    // Major and minor version (as from #versionKey) to the lazy-translation table for that version
+    private final Map<Long, boolean[]> lazyTables = new ConcurrentHashMap<>();
+
+    private TranslationIndex(Translation[] translations) {
+        this.translations = translations;
+        final Object2IntOpenHashMap<String> ids = new Object2IntOpenHashMap<>(translations.length);
+        ids.defaultReturnValue(-1);
+        for (int i = 0; i < translations.length; i++) {
+            ids.put(translations[i].key(), i);
+        }
+        this.ids = Object2IntMaps.unmodifiable(ids);
+    }
+
+    public static TranslationIndex get() {
+        return INSTANCE;
+    }
+
+    /**
+     * {@return a new index computed from all translations}
+     */
+    private static TranslationIndex compute() {
+        return new TranslationIndex(Stream.<Translation>concat(
+                Arrays.stream(Messages.values()),
+                Arrays.stream(Translations.values())
+        ).toArray(Translation[]::new));
+    }
+
+    /**
+     * {@return the ID of the translation with the given key, or {@code -1} if there is no such translation}
+     *
+     * @param key the translation key
+     */
+    public int id(String key) {
+        return ids.getInt(key);
+    }
+
+    /**
+     * {@return the amount of translations in the index} The IDs of the translations range from {@code 0} (inclusive)
+     * to this amount (exclusive).
+     */
+    public int size() {
+        return translations.length;
+    }
+
+    public Translation translation(int id) {
+        return translations[id];
+    }
+
+    /**
+     * {@return the table of whether each translation can be lazily translated by a client with the given version of
+     * the translations feature, indexed by the ID of the translation} The table is computed once per major and minor
+     * version, and the same table is returned for each call with that version; it must not be modified.
+     *
+     * <p>Looking up the table hashes the version, so callers which check many translations for the same client should
+     * look up the table once and keep it.</p>
+     *
+     * @param remoteVersion the client's version of the translations feature
+     */
+    public boolean[] lazyTable(ArtifactVersion remoteVersion) {
+        return lazyTables.computeIfAbsent(versionKey(remoteVersion), key -> {
+            final boolean[] table = new boolean[translations.length];
+            for (int i = 0; i < translations.length; i++) {
+                final ArtifactVersion version = translations[i].lastModifiedVersion();
+                table[i] = version.getMajorVersion() == remoteVersion.getMajorVersion()
+                        && version.getMinorVersion() == remoteVersion.getMinorVersion();
+            }
+            return table;
+        });
+    }
+
+    private static long versionKey(ArtifactVersion version) {
+        return ((long) version.getMajorVersion() << 32) | (version.getMinorVersion() & 0xFFFFFFFFL);
+    }
+}
@@ -22,7 +22,6 @@
 
 package dev.sciwhiz12.concord.util;
 
-import com.google.common.collect.Streams;
 import dev.sciwhiz12.concord.ConcordConfig;
 import dev.sciwhiz12.concord.features.ConcordFeatures;
 import net.minecraft.locale.Language;
@@ -34,26 +33,19 @@ import net.minecraft.network.chat.contents.TranslatableContents;
 import net.minecraft.server.level.ServerPlayer;
 
 import javax.annotation.Nullable;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
 
 public final class TranslationUtil {
-    static final Map<String, Translation> KEY_TO_INSTANCE = new HashMap<>();
+    @Nullable
+    private static volatile EagerTexts eagerTexts;
 
     private TranslationUtil() {
     } // Prevent instantiation
 
     @Nullable
     public static Translation findTranslation(String key) {
-        if (KEY_TO_INSTANCE.isEmpty()) {
-            Streams.concat(
-                    Arrays.stream(Messages.values()),
-                    Arrays.stream(Translations.values())
-            ).forEach(t -> KEY_TO_INSTANCE.put(t.key(), t));
-        }
-        return KEY_TO_INSTANCE.get(key);
+        final TranslationIndex index = TranslationIndex.get();
+        final int id = index.id(key);
+        return id >= 0 ? index.translation(id) : null;
     }
 
     /* Copied from net.minecraftforge.server.command.TextComponentHelper, and modified to suit our purpose */
@@ -84,65 +76,93 @@ public final class TranslationUtil {
                 translationKey, args);
     }
 
+    /**
+     * Eagerly translates the given component, and all translatable components within it (in siblings, arguments, and
+     * hover text). The given component is not modified, and the returned component is newly created.
+     *
+     * <p>This may be called from any thread.</p>
+     *
+     * @param component the component to translate
+     * @return the eagerly translated component
+     */
     public static MutableComponent eagerTranslate(final Component component) {
-        return checkComponent(component);
-    }
-
-    public static MutableComponent checkComponent(Component component) {
-        if (component instanceof MutableComponent mutable) {
-            return checkComponent(mutable);
+        final MutableComponent result = MutableComponent.create(
+                component.getContents() instanceof TranslatableContents translatable
+                        ? new TranslatableContents(eagerText(translatable.getKey(), translatable.getFallback()), null,
+                        eagerTranslateArgs(translatable.getArgs()))
+                        : component.getContents());
+        result.setStyle(checkHover(component.getStyle()));
+        for (Component sibling : component.getSiblings()) {
+            result.append(eagerTranslate(sibling));
         }
-        return checkComponent(component.copy());
+        return result;
     }
 
-    // Use the above instead
-    private static MutableComponent checkComponent(MutableComponent component) {
-        if (component.getContents() instanceof TranslatableContents translatable) {
-            component = translateEagerly(component, translatable);
-        }
-        component.withStyle(TranslationUtil::checkHover);
-        checkSiblings(component);
-        return component;
+    /**
+     * {@return the eagerly translated component of the given translation} The translated text is cached, so this only
+     * creates the returned component.
+     *
+     * @param translation the translation
+     */
+    public static MutableComponent eagerComponent(Translation translation) {
+        return Component.literal(eagerText(translation.key(), translation.englishText()));
     }
 
-    private static void checkSiblings(MutableComponent component) {
-        final ArrayList<Component> originalSiblings = new ArrayList<>(component.getSiblings());
-        component.getSiblings().clear();
-        for (Component sibling : originalSiblings) {
-            if (sibling.getContents() instanceof TranslatableContents) {
-                component.append(eagerTranslate(sibling));
-            } else {
-                component.append(checkComponent(sibling));
-            }
-        }
+    /**
+     * {@return the eagerly translated component of the given translation with the given arguments} The translated
+     * format template is cached, so only the arguments are translated.
+     *
+     * @param translation the translation
+     * @param formatArgs  the format arguments
+     */
+    public static MutableComponent eagerComponent(Translation translation, Object... formatArgs) {
+        return Component.translatable(eagerText(translation.key(), translation.englishText()), eagerTranslateArgs(formatArgs));
     }
 
-    private static MutableComponent translateEagerly(MutableComponent component, TranslatableContents contents) {
-        Object[] oldArgs = contents.getArgs();
-        Object[] newArgs = new Object[oldArgs.length];
-
-        for (int i = 0; i < oldArgs.length; i++) {
-            Object obj = oldArgs[i];
-            if (obj instanceof Component componentArg) {
-                obj = checkComponent(componentArg);
-            }
-            newArgs[i] = obj;
+    private static Object[] eagerTranslateArgs(Object[] args) {
+        final Object[] newArgs = new Object[args.length];
+        for (int i = 0; i < args.length; i++) {
+            newArgs[i] = args[i] instanceof Component componentArg ? eagerTranslate(componentArg) : args[i];
         }
-
-        MutableComponent result = Component.translatable(Language.getInstance().getOrDefault(contents.getKey()), newArgs);
-        result.setStyle(component.getStyle());
-        component.getSiblings().forEach(result::append);
-        return result;
+        return newArgs;
     }
 
     private static Style checkHover(Style style) {
-        HoverEvent hover = style.getHoverEvent();
+        final @Nullable HoverEvent hover = style.getHoverEvent();
         if (hover != null && hover.getAction() == HoverEvent.Action.SHOW_TEXT) {
-            Component hoverComponent = hover.getValue(HoverEvent.Action.SHOW_TEXT);
+            final @Nullable Component hoverComponent = hover.getValue(HoverEvent.Action.SHOW_TEXT);
             if (hoverComponent != null) {
-                return style.withHoverEvent(new HoverEvent(HoverEvent.Action.SHOW_TEXT, checkComponent(hoverComponent)));
+                return style.withHoverEvent(new HoverEvent(HoverEvent.Action.SHOW_TEXT, eagerTranslate(hoverComponent)));
             }
         }
         return style;
     }
+
+    // Eagerly translates the given key, caching the translated text if it is one of Concord's translations
+    private static String eagerText(String key, @Nullable String fallback) {
+        final Language language = Language.getInstance();
+        final TranslationIndex index = TranslationIndex.get();
+        final int id = index.id(key);
+        if (id < 0) {
+            return fallback != null ? language.getOrDefault(key, fallback) : language.getOrDefault(key);
+        }
+
+        EagerTexts cache = eagerTexts;
+        if (cache == null || cache.language != language) {
+            // The language was replaced (such as by reloading resources), so start a new cache
+            cache = new EagerTexts(language, new String[index.size()]);
+            eagerTexts = cache;
+        }
+        @Nullable String text = cache.texts[id];
+        if (text == null) {
+            // Racing threads may both compute the text, which is the same either way
+            text = language.getOrDefault(key, index.translation(id).englishText());
+            cache.texts[id] = text;
+        }
+        return text;
+    }
+
+    // The eagerly translated texts of Concord's translations (by their IDs in the translation index) for a language
+    private record EagerTexts(Language language, @Nullable String[] texts) {
+    }
 }
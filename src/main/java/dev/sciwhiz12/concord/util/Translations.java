@@ -68,7 +68,13 @@ public enum Translations implements Translation {
     COMMAND_REPORT_SUCCESS("command", "report.success", "1.1.0", "Submitted report for %s for reason: %s"),
     COMMAND_STATUS_PREFIX("command", "status", "1.0.0", "Discord integration status: %s"),
     COMMAND_STATUS_ENABLED("command", "status.enabled", "1.0.0", "ENABLED"),
-    COMMAND_STATUS_DISABLED("command", "status.disabled", "1.0.0", "DISABLED");
+    COMMAND_STATUS_DISABLED("command", "status.disabled", "1.0.0", "DISABLED"),
+    COMMAND_STATUS_CIRCUIT_PREFIX("command", "status.circuit", "1.3.0", "Connection to Discord: %s"),
+    COMMAND_STATUS_CIRCUIT_CLOSED("command", "status.circuit.closed", "1.3.0", "HEALTHY"),
+    COMMAND_STATUS_CIRCUIT_OPEN("command", "status.circuit.open", "1.3.0", "FAILING (retrying in %s seconds)"),
+    COMMAND_STATUS_CIRCUIT_HALF_OPEN("command", "status.circuit.half_open", "1.3.0", "RECOVERING"),
+    COMMAND_STATUS_MEMORY("command", "status.memory", "1.3.0", "Remembered chat messages: %s (about %s KiB)"),
+    HOVER_HEADER_NO_STATUS("chat", "hover.header.no_status", "1.3.0", "%s %s");
 
     private final String key;
     private final String englishText;
@@ -0,0 +1,121 @@
+/*
+ * Concord - Copyright (c) 2020 SciWhiz12
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package dev.sciwhiz12.concord.msg;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Timing harness for {@link ContentTokenizer} on pathological inputs, run with {@code gradlew benchmark}.
+ *
+ * <p>For each input, the time to tokenize it is measured at increasing lengths (each {@value #GROWTH} times the last),
+ * and printed along with the time taken by the {@linkplain RegexContentFormatter regex-based formatting} it replaced.
+ * As the tokenizer is linear in the length of its input, each step should take about {@value #GROWTH} times as long
+ * as the last; the harness fails if the time grows by more than {@value #MAX_STEP_RATIO} times in a step, which a
+ * quadratic scan (growing by {@code GROWTH * GROWTH} times) would exceed.</p>
+ */
+@Tag("benchmark")
+class ContentTokenizerBenchmark {
+    private static final int GROWTH = 4;
+    private static final double MAX_STEP_RATIO = GROWTH * 2.5;
+    private static final int[] LENGTHS = {2_000, 8_000, 32_000, 128_000};
+    private static final int WARMUP = 20;
+    private static final int RUNS = 15;
+
+    static Stream<Arguments> inputs() {
+        return Stream.of(
+                input("repeated schemes", "http://"),
+                input("domain run without a dot", length -> "http://" + "a".repeat(length)),
+                input("domain run of dots", length -> "http://" + "a.".repeat(length / 2)),
+                input("domain run with a long top-level domain",
+                        length -> "http://" + "a".repeat(length) + ".abcdefgh"),
+                input("repeated short links", "http://a.b "),
+                input("repeated legacy triggers", "&"),
+                input("repeated unknown legacy codes", "&z"),
+                input("repeated custom triggers", "$"),
+                input("repeated long custom words", "$aaaaaaaaaaaaaaaaaaaa "),
+                input("repeated hex triggers", "$#")
+        );
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("inputs")
+    void scalesLinearly(String name, IntFunction<String> generator) {
+        System.out.printf("%s:%n", name);
+        long previous = -1;
+        for (int length : LENGTHS) {
+            final String input = generator.apply(length);
+            final long tokenizer = measure(() -> {
+                new ContentTokenizer(input, true, false, false).tokenize();
+                new ContentTokenizer(input, false, true, false).tokenize();
+                new ContentTokenizer(input, false, false, true).tokenize();
+            });
+            final long regex = measure(() -> {
+                RegexContentFormatter.redactLinks(input);
+                try {
+                    RegexContentFormatter.processLegacyFormatting(input, true);
+                } catch (StringIndexOutOfBoundsException ignored) {
+                    // The regex formatting throws for some inputs
+                }
+                RegexContentFormatter.processCustomFormatting(input, false, true);
+            });
+            System.out.printf("  %,9d chars: tokenizer %,12d ns, regex %,12d ns%n", input.length(), tokenizer, regex);
+
+            if (previous > 0) {
+                final double ratio = (double) tokenizer / previous;
+                assertTrue(ratio <= MAX_STEP_RATIO, () -> "Time for '%s' grew by %.1f times for %d times the input"
+                        .formatted(name, ratio, GROWTH));
+            }
+            previous = tokenizer;
+        }
+    }
+
+    // The best time of several runs, after warming up
+    private static long measure(Runnable task) {
+        for (int i = 0; i < WARMUP; i++) {
+            task.run();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            final long start = System.nanoTime();
+            task.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private static Arguments input(String name, String unit) {
+        return input(name, length -> unit.repeat(Math.max(1, length / unit.length())));
+    }
+
+    private static Arguments input(String name, IntFunction<String> generator) {
+        return Arguments.of(name, generator);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Concord - Copyright (c) 2020 SciWhiz12
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package dev.sciwhiz12.concord.msg;
+
+import net.minecraft.ChatFormatting;
+import net.minecraft.network.chat.Component;
+import net.minecraft.network.chat.Style;
+import net.minecraft.network.chat.TextColor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Compares the output of {@link ContentTokenizer} with the {@linkplain RegexContentFormatter regex-based formatting} it
+ * replaced, and checks the cases where the two intentionally differ.
+ *
+ * <p>Components are compared by their visible text runs and the style each run is rendered with, as the two build
+ * differently nested component trees for the same output.</p>
+ */
+class ContentTokenizerTest {
+    private static final Style WHITE = Style.EMPTY.applyFormat(ChatFormatting.WHITE);
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "",
+            "no links here",
+            "see https://example.com/path?x=1 now",
+            "HTTPS://EXAMPLE.COM/PATH",
+            "https://www.example.co.uk.",
+            "(http://foo.bar/baz)",
+            "two http://a.com and https://b.org/x, and more",
+            "http://localhost:8080/not-a-link",
+            "https://example.com/a_(b)\"",
+            "email me at someone@example.com",
+    })
+    void veiledLinksMatchRegex(String input) {
+        assertSameOutput(input, true, false, false);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "",
+            "&5Sup?",
+            "plain &aGreen &cRed",
+            "trailing &",
+            "&&5x",
+            "&5a&lb",
+            "&r reset",
+            "no codes at all",
+    })
+    void legacyFormattingMatchesRegex(String input) {
+        assertSameOutput(input, false, true, false);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "",
+            "$red chat",
+            "$#0000FF sup",
+            "before $green after",
+            "$red",
+            "$red$blue x",
+            "$dark_aqua  two spaces",
+            "a lone $ sign",
+            "&5 is not a code here",
+    })
+    void customFormattingMatchesRegex(String input) {
+        assertSameOutput(input, false, false, true);
+    }
+
+    @Test
+    void unknownLegacyCodeKeepsCurrentStyle() {
+        // The regex formatting reset unknown codes to white
+        assertEquals(List.of(run("x &z y", Style.EMPTY.applyFormat(ChatFormatting.DARK_PURPLE))),
+                runs(tokenize("&5x &z y", false, true, false)));
+    }
+
+    @Test
+    void unknownCustomCodeIsKeptAsText() {
+        // The regex formatting dropped the unknown code, and colored the rest white
+        assertEquals(List.of(run("$foo bar", WHITE)), runs(tokenize("$foo bar", false, false, true)));
+        assertEquals(List.of(run("cost is $5", WHITE)), runs(tokenize("cost is $5", false, false, true)));
+    }
+
+    @Test
+    void oneCharacterBeforeLegacyCodeDoesNotThrow() {
+        assertThrows(StringIndexOutOfBoundsException.class,
+                () -> RegexContentFormatter.processLegacyFormatting("x&5y", true));
+        assertEquals(List.of(run("x", WHITE), run("y", Style.EMPTY.applyFormat(ChatFormatting.DARK_PURPLE))),
+                runs(tokenize("x&5y", false, true, false)));
+    }
+
+    @Test
+    void linksTakePrecedenceOverLegacyCodes() {
+        // Not a combination which the configuration selects, but the scanner supports both at once
+        final Style purple = Style.EMPTY.applyFormat(ChatFormatting.DARK_PURPLE);
+        final List<Run> expected = new ArrayList<>();
+        expected.add(run("see ", purple));
+        expected.addAll(runs(FormattingUtilities.createLinkComponent("https://a.com/x&a", "a.com")));
+        expected.add(run(" ", purple));
+        expected.add(run("y", Style.EMPTY.applyFormat(ChatFormatting.GREEN)));
+        assertEquals(expected, runs(tokenize("&5see https://a.com/x&a &ay", true, true, false)));
+    }
+
+    @Test
+    void hexColorCode() {
+        assertEquals(List.of(run("sup", Style.EMPTY.withColor(TextColor.fromRgb(0x0000FF)))),
+                runs(tokenize("$#0000FF sup", false, false, true)));
+    }
+
+    private static void assertSameOutput(String input, boolean links, boolean legacy, boolean custom) {
+        assertEquals(runs(RegexContentFormatter.format(input, links, legacy, custom)),
+                runs(tokenize(input, links, legacy, custom)), () -> "Output differs for: " + input);
+    }
+
+    private static Component tokenize(String input, boolean links, boolean legacy, boolean custom) {
+        return new ContentTokenizer(input, links, legacy, custom).tokenize();
+    }
+
+    // Flattens the component to its non-empty text runs, merging adjacent runs with the same style
+    private static List<Run> runs(Component component) {
+        final List<Run> runs = new ArrayList<>();
+        component.visit((style, text) -> {
+            if (text.isEmpty()) return Optional.empty();
+            if (!runs.isEmpty() && runs.getLast().style().equals(style)) {
+                runs.set(runs.size() - 1, run(runs.getLast().text() + text, style));
+            } else {
+                runs.add(run(text, style));
+            }
+            return Optional.empty();
+        }, Style.EMPTY);
+        return runs;
+    }
+
+    private static Run run(String text, Style style) {
+        return new Run(text, style);
+    }
+
+    private record Run(String text, Style style) {
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Concord - Copyright (c) 2020 SciWhiz12
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package dev.sciwhiz12.concord.msg;
+
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.requests.RestAction;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Checks that the {@link OutboundScheduler} holds back only the requests for exhausted routes.
+ */
+class OutboundSchedulerTest {
+    private final OutboundScheduler scheduler = new OutboundScheduler();
+
+    @AfterEach
+    void shutdown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    void exhaustedRouteDoesNotHoldBackOtherRoutes() throws Exception {
+        final String exhausted = OutboundScheduler.channelRoute(1);
+        // Use up the default capacity of the route, so its bucket is exhausted until it resets seconds later
+        for (int i = 0; i < 5; i++) {
+            scheduler.submit(exhausted, () -> completed("sent")).get(1, TimeUnit.SECONDS);
+        }
+        final CompletableFuture<String> heldBack = scheduler.submit(exhausted, () -> completed("held back"));
+
+        final CompletableFuture<String> other = scheduler.submit(OutboundScheduler.channelRoute(2),
+                () -> completed("other"));
+        assertEquals("other", other.get(1, TimeUnit.SECONDS));
+        assertFalse(heldBack.isDone());
+    }
+
+    private static <T> RestAction<T> completed(T value) {
+        return new RestAction<>() {
+            @Override
+            public JDA getJDA() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public RestAction<T> setCheck(BooleanSupplier checks) {
+                return this;
+            }
+
+            @Override
+            public void queue(Consumer<? super T> success, Consumer<? super Throwable> failure) {
+                success.accept(value);
+            }
+
+            @Override
+            public T complete(boolean shouldQueue) {
+                return value;
+            }
+
+            @Override
+            public CompletableFuture<T> submit(boolean shouldQueue) {
+                return CompletableFuture.completedFuture(value);
+            }
+        };
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Concord - Copyright (c) 2020 SciWhiz12
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package dev.sciwhiz12.concord.msg;
+
+import com.google.common.base.CharMatcher;
+import net.minecraft.ChatFormatting;
+import net.minecraft.network.chat.Component;
+import net.minecraft.network.chat.MutableComponent;
+import net.minecraft.network.chat.Style;
+import net.minecraft.network.chat.TextColor;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static net.minecraft.ChatFormatting.WHITE;
+
+/**
+ * The regex-based formatting of message content which {@link ContentTokenizer} replaced, kept as a reference for
+ * comparing the two. The configuration checks are replaced with parameters, and the link component is created with
+ * {@link FormattingUtilities#createLinkComponent(String, String)} (which is unchanged from the original).
+ */
+final class RegexContentFormatter {
+    private RegexContentFormatter() {
+    }
+
+    private static final Pattern URL_PATTERN = Pattern.compile(
+            "https?://(?<domain>(www\\.)?[-a-zA-Z0-9@:%._+~#=]{1,256}\\.[a-zA-Z0-9()]{1,6})\\b([-a-zA-Z0-9()@:%_+.~#?&/=]*)",
+            Pattern.CASE_INSENSITIVE);
+    private static final CharMatcher END_PUNCTUATION = CharMatcher.anyOf(".,;:)]\"'");
+
+    static MutableComponent format(String input, boolean veiledLinks, boolean legacy, boolean custom) {
+        if (veiledLinks) {
+            return redactLinks(input);
+        }
+        return processCustomFormatting(input, legacy, custom);
+    }
+
+    static MutableComponent redactLinks(String input) {
+        final Matcher urlMatcher = URL_PATTERN.matcher(input);
+        if (!urlMatcher.find()) {
+            return Component.literal(input).withStyle(WHITE);
+        }
+
+        MutableComponent base = Component.literal("").withStyle(WHITE);
+        int lastPosition = 0;
+        do {
+            final int urlStart = urlMatcher.start();
+            int urlEnd = urlMatcher.end();
+            final String urlDomain = urlMatcher.group("domain");
+
+            final String url;
+            final String originalUrl = urlMatcher.group();
+            final String trimmedUrl = END_PUNCTUATION.trimTrailingFrom(originalUrl);
+            if (!trimmedUrl.equals(originalUrl)) {
+                urlEnd -= originalUrl.length() - trimmedUrl.length();
+                url = trimmedUrl;
+            } else {
+                url = originalUrl;
+            }
+
+            base.append(input.substring(lastPosition, urlStart));
+            base.append(FormattingUtilities.createLinkComponent(url, urlDomain));
+            lastPosition = urlEnd;
+        } while (urlMatcher.find());
+
+        if (lastPosition < input.length()) {
+            base.append(input.substring(lastPosition));
+        }
+
+        return base;
+    }
+
+    static MutableComponent processLegacyFormatting(String input, boolean legacy) {
+        if (!legacy) {
+            return Component.literal(input).withStyle(WHITE);
+        }
+        final String[] parts = input.split("(?=&)");
+        MutableComponent currentComponent = Component.literal("");
+
+        for (String part : parts) {
+            if (part.isEmpty()) continue;
+
+            final boolean partHasFormatter = part.charAt(0) == '&';
+            if (partHasFormatter && part.length() == 1) {
+                currentComponent = currentComponent.append(Component.literal(part).withStyle(WHITE));
+                continue;
+            }
+
+            // Throws for a one-character part which is not a formatter, as in the original
+            final ChatFormatting formatting = ChatFormatting.getByCode(part.charAt(1));
+            if (partHasFormatter && formatting != null) {
+                currentComponent = currentComponent.append(Component.literal(part.substring(2)).withStyle(formatting));
+            } else {
+                currentComponent = currentComponent.append(Component.literal(part).withStyle(WHITE));
+            }
+        }
+
+        return currentComponent;
+    }
+
+    static MutableComponent processCustomFormatting(String input, boolean legacy, boolean custom) {
+        if (!custom) {
+            return processLegacyFormatting(input, legacy);
+        }
+        MutableComponent currentComponent = Component.literal("");
+        final String[] parts = input.split("(?=\\$#?[\\w\\d]+)");
+
+        for (String part : parts) {
+            if (part.isEmpty()) continue;
+
+            final boolean partHasFormatter = part.charAt(0) == '$';
+            final int firstSpacePosition = part.indexOf(' ');
+
+            if (partHasFormatter && part.length() == 1 && firstSpacePosition == -1) {
+                currentComponent = currentComponent.append(Component.literal(part).withStyle(WHITE));
+                continue;
+            }
+
+            final String formatString = firstSpacePosition == -1 ? part.substring(1) : part.substring(1, firstSpacePosition);
+            final TextColor color = TextColor.parseColor(formatString).result().orElse(TextColor.fromLegacyFormat(WHITE));
+            final Style formatting = Style.EMPTY.withColor(color);
+
+            if (partHasFormatter && color != null) {
+                currentComponent = currentComponent.append(
+                        Component.literal(part.substring(firstSpacePosition != -1 ? firstSpacePosition + 1 : part.length()))
+                                .withStyle(formatting)
+                );
+            } else {
+                currentComponent = currentComponent.append(
+                        Component.literal(part).withStyle(WHITE)
+                );
+            }
+        }
+
+        return currentComponent;
+    }
+}